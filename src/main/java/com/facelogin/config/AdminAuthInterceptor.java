@@ -0,0 +1,49 @@
+package com.facelogin.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Guards /api/admin/** with a shared admin token sent in the {@value #TOKEN_HEADER}
+ * header. With no {@code face.admin.token} configured the admin API is closed.
+ */
+@Component
+public class AdminAuthInterceptor implements HandlerInterceptor {
+
+    public static final String TOKEN_HEADER = "X-Admin-Token";
+
+    private final byte[] token;
+
+    public AdminAuthInterceptor(@Value("${face.admin.token:}") String token) {
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        if (token.isBlank()) {
+            System.out.println("⚠️ face.admin.token is not set, /api/admin is disabled");
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (CorsUtils.isPreFlightRequest(request)) return true;
+        if (isValid(request.getHeader(TOKEN_HEADER))) return true;
+
+        response.setStatus(token.length == 0 ? HttpServletResponse.SC_FORBIDDEN : HttpServletResponse.SC_UNAUTHORIZED);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(token.length == 0
+                ? "{\"success\":false,\"message\":\"Admin API disabled: face.admin.token is not set\"}"
+                : "{\"success\":false,\"message\":\"Missing or invalid " + TOKEN_HEADER + "\"}");
+        return false;
+    }
+
+    boolean isValid(String presented) {
+        if (token.length == 0 || presented == null) return false;
+        return MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
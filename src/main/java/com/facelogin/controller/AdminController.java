@@ -0,0 +1,228 @@
+package com.facelogin.controller;
+
+import com.facelogin.service.AdmissionControl;
+import com.facelogin.service.BulkImportService;
+import com.facelogin.service.IndexSyncService;
+import com.facelogin.service.LoginEventLog;
+import com.facelogin.service.MatchThresholds;
+import com.facelogin.service.ReembedService;
+import com.facelogin.service.UserService;
+import com.facelogin.util.ImageBufferPool;
+import com.facelogin.util.OpenCVFaceRecognition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private IndexSyncService indexSyncService;
+
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private ReembedService reembedService;
+
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Autowired
+    private MatchThresholds thresholds;
+
+    @Autowired
+    private LoginEventLog loginEventLog;
+
+    @Autowired
+    private OpenCVFaceRecognition faceRecognition;
+
+    @Autowired
+    private ImageBufferPool imageBufferPool;
+
+    @GetMapping("/status")
+    public ResponseEntity<?> status() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", userService.getSystemStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<?> admissionMetrics() {
+        return ResponseEntity.ok(admissionControl.getMetrics());
+    }
+
+    @GetMapping("/events")
+    public ResponseEntity<?> eventLogMetrics() {
+        return ResponseEntity.ok(loginEventLog.getMetrics());
+    }
+
+    /**
+     * Per-stage p50/p99 latency and hourly login success rates over the last {@code hours}.
+     */
+    @GetMapping("/events/stats")
+    public ResponseEntity<?> eventStats(@RequestParam(value = "hours", defaultValue = "24") int hours) {
+        try {
+            return ResponseEntity.ok(loginEventLog.getStats(hours));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Stats failed: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * Eye-alignment hit rate and cost (extractor version 2 and later).
+     */
+    @GetMapping("/alignment")
+    public ResponseEntity<?> alignmentMetrics() {
+        return ResponseEntity.ok(faceRecognition.getAlignmentMetrics());
+    }
+
+    @GetMapping("/uploads")
+    public ResponseEntity<?> uploadMetrics() {
+        return ResponseEntity.ok(imageBufferPool.getMetrics());
+    }
+
+    @GetMapping("/thresholds")
+    public ResponseEntity<?> getThresholds() {
+        return ResponseEntity.ok(thresholds.toMap());
+    }
+
+    /**
+     * Change the login and/or registration distance threshold on every node.
+     */
+    @PostMapping("/thresholds")
+    public ResponseEntity<?> setThresholds(@RequestParam(value = "login", required = false) Double login,
+                                           @RequestParam(value = "registration", required = false) Double registration) {
+        try {
+            return ResponseEntity.ok(thresholds.update(login, registration));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Threshold update failed: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @GetMapping("/index/sync")
+    public ResponseEntity<?> syncMetrics() {
+        return ResponseEntity.ok(indexSyncService.getMetrics());
+    }
+
+    @PostMapping("/index/resync")
+    public ResponseEntity<?> resync() {
+        try {
+            indexSyncService.fullResync();
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "Face index reloaded");
+            response.put("sync", indexSyncService.getMetrics());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Resync failed: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    /**
+     * Start a bulk enrollment from an uploaded zip, or from a directory on this server.
+     */
+    @PostMapping("/import")
+    public ResponseEntity<?> startImport(
+            @RequestParam(value = "archive", required = false) MultipartFile archive,
+            @RequestParam(value = "path", required = false) String path) {
+        try {
+            BulkImportService.ImportJob job;
+            if (archive != null && !archive.isEmpty()) {
+                try (InputStream in = archive.getInputStream()) {
+                    job = bulkImportService.startFromZip(in);
+                }
+            } else if (path != null && !path.isBlank()) {
+                job = bulkImportService.start(Path.of(path));
+            } else {
+                throw new RuntimeException("Provide a zip archive or a server-side path");
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "Import started");
+            response.put("job", job.toMap());
+            return ResponseEntity.accepted().body(response);
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Import failed: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @GetMapping("/import")
+    public ResponseEntity<?> listImports() {
+        List<Map<String, Object>> jobs = bulkImportService.getJobs().stream()
+                .map(BulkImportService.ImportJob::toMap)
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(jobs);
+    }
+
+    @GetMapping("/import/{jobId}")
+    public ResponseEntity<?> importProgress(@PathVariable String jobId) {
+        BulkImportService.ImportJob job = bulkImportService.getJob(jobId);
+        if (job == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(job.toMap());
+    }
+
+    @GetMapping("/reembed")
+    public ResponseEntity<?> reembedStatus() {
+        return ResponseEntity.ok(reembedService.getStatus());
+    }
+
+    /**
+     * Start or resume re-embedding every stored face with the given extractor version.
+     */
+    @PostMapping("/reembed")
+    public ResponseEntity<?> startReembed(@RequestParam("version") int version) {
+        try {
+            return ResponseEntity.accepted().body(reembedService.start(version));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Re-embedding failed: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @PostMapping("/reembed/stop")
+    public ResponseEntity<?> stopReembed() {
+        reembedService.stop();
+        return ResponseEntity.ok(reembedService.getStatus());
+    }
+
+    @PostMapping("/reembed/cutover")
+    public ResponseEntity<?> cutover(@RequestParam("version") int version,
+                                     @RequestParam(value = "force", defaultValue = "false") boolean force) {
+        try {
+            return ResponseEntity.ok(reembedService.cutover(version, force));
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Cutover failed: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.facelogin.controller;
 
+import com.facelogin.model.LoginEvent;
 import com.facelogin.model.User;
+import com.facelogin.service.AdmissionControl;
+import com.facelogin.service.LoginEventLog;
 import com.facelogin.service.UserService;
 import com.facelogin.service.TelegramService;
+import com.facelogin.util.ImageBufferPool;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -15,6 +22,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -27,19 +35,54 @@ public class AuthController {
     @Autowired
     private TelegramService telegramService;
 
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Autowired
+    private ImageBufferPool imageBufferPool;
+
+    @Autowired
+    private LoginEventLog loginEventLog;
+
     @Value("${telegram.admin.chat-id}")
     private String adminChatId;
 
-    @PostMapping("/register")
+    @PostMapping(value = "/register", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> register(
             @RequestParam("username") String username,
             @RequestParam("email") String email,
             @RequestParam("faceImage") MultipartFile faceImage) {
-
-        try {
+        return register(username, email, () -> {
             if (faceImage.isEmpty()) throw new RuntimeException("Please select an image file");
+            return imageBufferPool.read(faceImage.getInputStream(), faceImage.getSize());
+        });
+    }
+
+    /**
+     * Same as the multipart form, with the JPEG/PNG as the raw request body; the body is
+     * streamed straight into a pooled buffer without multipart parsing.
+     */
+    @PostMapping(value = "/register", consumes = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE,
+            MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> registerRaw(
+            @RequestParam("username") String username,
+            @RequestParam("email") String email,
+            HttpServletRequest request) {
+        return register(username, email,
+                () -> imageBufferPool.read(request.getInputStream(), request.getContentLengthLong()));
+    }
 
-            User user = userService.registerUser(username, email, faceImage);
+    private ResponseEntity<?> register(String username, String email, Callable<ImageBufferPool.PooledImage> upload) {
+        try {
+            // Admit first so queued requests don't pin upload buffers; the pool then only
+            // ever serves requests that are about to run
+            User user;
+            try (AdmissionControl.Permit permit = admissionControl.acquire(AdmissionControl.Priority.REGISTRATION);
+                 ImageBufferPool.PooledImage faceImage = upload.call()) {
+                permit.startWork();
+                user = userService.registerUser(username, email, faceImage);
+                permit.succeeded();
+            }
             LocalDateTime currentDateTime = LocalDateTime.now();
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("EEEE, yyyy-MM-dd HH:mm:ss");
             currentDateTime.format(formatter);
@@ -66,6 +109,10 @@ public class AuthController {
 
             return ResponseEntity.ok(response);
 
+        } catch (AdmissionControl.RejectedException e) {
+            return shed(e.getStatus(), e.getRetryAfterSeconds(), e.getMessage());
+        } catch (ImageBufferPool.PoolExhaustedException e) {
+            return shed(503, admissionControl.retryAfterSeconds(), e.getMessage());
         } catch (Exception e) {
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
@@ -76,12 +123,33 @@ public class AuthController {
     
     
 
-    @PostMapping("/login")
+    @PostMapping(value = "/login", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> login(@RequestParam("faceImage") MultipartFile faceImage) {
-        try {
+        return login(() -> {
             if (faceImage.isEmpty()) throw new RuntimeException("Please select an image file");
+            return imageBufferPool.read(faceImage.getInputStream(), faceImage.getSize());
+        });
+    }
+
+    /**
+     * Same as the multipart form, with the JPEG/PNG as the raw request body.
+     */
+    @PostMapping(value = "/login", consumes = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE,
+            MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> loginRaw(HttpServletRequest request) {
+        return login(() -> imageBufferPool.read(request.getInputStream(), request.getContentLengthLong()));
+    }
 
-            Optional<User> userOpt = userService.loginWithFace(faceImage);
+    private ResponseEntity<?> login(Callable<ImageBufferPool.PooledImage> upload) {
+        long start = System.nanoTime();
+        try {
+            Optional<User> userOpt;
+            try (AdmissionControl.Permit permit = admissionControl.acquire(AdmissionControl.Priority.LOGIN);
+                 ImageBufferPool.PooledImage faceImage = upload.call()) {
+                permit.startWork();
+                userOpt = userService.loginWithFace(faceImage);
+                permit.succeeded();
+            }
 
             if (userOpt.isPresent()) {
                 User user = userOpt.get();
@@ -117,11 +185,30 @@ public class AuthController {
                 return ResponseEntity.status(401).body(response);
             }
 
+        } catch (AdmissionControl.RejectedException e) {
+            loginEventLog.record(LoginEvent.Outcome.SHED, LoginEvent.Channel.HTTP, start);
+            return shed(e.getStatus(), e.getRetryAfterSeconds(), e.getMessage());
+        } catch (ImageBufferPool.PoolExhaustedException e) {
+            loginEventLog.record(LoginEvent.Outcome.SHED, LoginEvent.Channel.HTTP, start);
+            return shed(503, admissionControl.retryAfterSeconds(), e.getMessage());
         } catch (Exception e) {
+            if (e instanceof ImageBufferPool.ImageRejectedException) {
+                loginEventLog.record(LoginEvent.Outcome.REJECTED, LoginEvent.Channel.HTTP, start);
+            }
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "Login failed: " + e.getMessage());
             return ResponseEntity.badRequest().body(response);
         }
     }
+
+    private ResponseEntity<?> shed(int status, int retryAfterSeconds, String reason) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "Server busy, please retry: " + reason);
+        response.put("retryAfterSeconds", retryAfterSeconds);
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(response);
+    }
 }
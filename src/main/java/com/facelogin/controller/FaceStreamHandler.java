@@ -0,0 +1,211 @@
+package com.facelogin.controller;
+
+import com.facelogin.model.LoginEvent;
+import com.facelogin.model.User;
+import com.facelogin.service.AdmissionControl;
+import com.facelogin.service.LoginEventLog;
+import com.facelogin.service.UserService;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.ImageSniffer;
+import com.facelogin.util.OpenCVFaceRecognition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Continuous authentication over a WebSocket: the client streams JPEG/PNG frames as
+ * binary messages and gets one JSON text message back per frame.
+ *
+ * Frames take the same path as an HTTP login: over {@code max-fps} per session they are
+ * dropped, the header is sniffed and anything that is not a JPEG/PNG within
+ * {@code max-pixels} is rejected before decoding, and the face work runs under an
+ * {@link AdmissionControl} login permit. Identity searches and turned-away frames are
+ * recorded in the login event log.
+ *
+ * Between frames the face is tracked (see {@link FaceTrack}): detection only scans a
+ * window around the last face rectangle at nearby scales, with a full-frame re-detect
+ * every {@code full-detect-every} frames or when the track is lost. The identity is only
+ * searched for when the track is new or has jumped, or when confidence has decayed — i.e.
+ * the face has drifted from the matched user's stored embedding or has not been
+ * re-matched for a while.
+ */
+@Component
+public class FaceStreamHandler extends BinaryWebSocketHandler {
+
+    @Autowired
+    private OpenCVFaceRecognition faceRecognition;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Autowired
+    private LoginEventLog loginEventLog;
+
+    @Value("${face.stream.full-detect-every:15}")
+    private int fullDetectEvery;
+
+    @Value("${face.stream.search-margin:0.5}")
+    private double searchMargin;
+
+    @Value("${face.stream.verify-every:5}")
+    private int verifyEvery;
+
+    @Value("${face.stream.rematch-every:150}")
+    private int rematchEvery;
+
+    @Value("${face.stream.max-fps:15}")
+    private double maxFps;
+
+    @Value("${face.stream.max-pixels:2073600}")
+    private long maxPixels;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, FaceTrack> tracks = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        tracks.put(session.getId(), new FaceTrack(fullDetectEvery, verifyEvery, rematchEvery, maxFps, System.nanoTime()));
+        System.out.println("📹 Face stream opened: " + session.getId());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        FaceTrack track = tracks.get(session.getId());
+        if (track == null) return;
+
+        long start = System.nanoTime();
+        Map<String, Object> response = new LinkedHashMap<>();
+        if (!track.tryAcceptFrame(start)) {
+            response.put("dropped", true);
+            response.put("error", "Frame rate above " + maxFps + " fps");
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+            return;
+        }
+
+        try {
+            ByteBuffer payload = message.getPayload().slice();
+            String rejected = checkFrame(payload);
+            if (rejected != null) {
+                loginEventLog.record(LoginEvent.Outcome.REJECTED, LoginEvent.Channel.STREAM, start);
+                response.put("error", rejected);
+            } else {
+                byte[] frame = new byte[payload.remaining()];
+                payload.get(frame);
+                try (AdmissionControl.Permit permit = admissionControl.acquire(AdmissionControl.Priority.LOGIN)) {
+                    processFrame(track, faceRecognition.decodeGray(frame), response);
+                    permit.succeeded();
+                }
+            }
+        } catch (AdmissionControl.RejectedException e) {
+            loginEventLog.record(LoginEvent.Outcome.SHED, LoginEvent.Channel.STREAM, start);
+            response.put("error", "Server busy, please retry: " + e.getMessage());
+            response.put("retryAfterSeconds", e.getRetryAfterSeconds());
+        } catch (Exception e) {
+            response.put("error", e.getMessage());
+        }
+        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        FaceTrack track = tracks.remove(session.getId());
+        if (track != null) {
+            System.out.println("📹 Face stream closed: " + session.getId() + " — " + track.frames + " frames, "
+                    + track.fullDetects + " full detects, " + track.windowDetects + " window detects, "
+                    + track.searches + " identity searches, " + track.dropped + " dropped");
+        }
+    }
+
+    /**
+     * Same header checks as an upload (see ImageBufferPool); returns why the frame is
+     * refused, or null.
+     */
+    private String checkFrame(ByteBuffer frame) {
+        ImageSniffer sniffer = new ImageSniffer();
+        if (sniffer.sniff(frame, frame.remaining(), true) != ImageSniffer.Status.FOUND) {
+            return "Not a JPEG or PNG image";
+        }
+        if ((long) sniffer.getWidth() * sniffer.getHeight() > maxPixels) {
+            return "Frame " + sniffer.getWidth() + "x" + sniffer.getHeight() + " exceeds " + maxPixels + " pixels";
+        }
+        return null;
+    }
+
+    private void processFrame(FaceTrack track, Mat gray, Map<String, Object> response) {
+        long frame = track.nextFrame();
+        response.put("frame", frame);
+
+        // 1. Locate the face: window search around the last rect, full scan periodically or when lost
+        long detectStart = System.nanoTime();
+        Rect face = null;
+        boolean fullScan = track.needsFullScan();
+        if (!fullScan) {
+            face = faceRecognition.detectFaceNear(gray, track.rect, searchMargin);
+            track.detected(false);
+            if (face == null) fullScan = true;
+        }
+        if (fullScan) {
+            face = faceRecognition.detectLargestFace(gray);
+            track.detected(true);
+        }
+        response.put("detect", fullScan ? "full" : "window");
+        long detectNanos = System.nanoTime() - detectStart;
+
+        if (face == null) {
+            track.lost();
+            response.put("face", null);
+            response.put("authenticated", false);
+            return;
+        }
+        boolean trackChanged = track.moveTo(face);
+        response.put("face", Map.of("x", face.x, "y", face.y, "width", face.width, "height", face.height));
+
+        // 2. Decide whether the identity needs to be (re-)established
+        if (track.needsVerify(trackChanged)) {
+            long extractStart = System.nanoTime();
+            List<Double> features = faceRecognition.extractFeatures(gray, face);
+            long extractNanos = System.nanoTime() - extractStart;
+            double drift = track.matchedFeatures == null ? 0
+                    : faceRecognition.compareFeatures(features, track.matchedFeatures);
+            if (track.verified(trackChanged, drift, userService.getLoginThreshold())) {
+                search(track, features, detectStart, detectNanos, extractNanos);
+                response.put("searched", true);
+            }
+        }
+
+        response.put("authenticated", track.user != null);
+        if (track.user != null) {
+            response.put("user", Map.of("id", track.user.getId(), "username", track.user.getUsername()));
+            response.put("confidence", Math.max(0.0, track.confidence));
+        }
+    }
+
+    private void search(FaceTrack track, List<Double> features, long startNanos, long detectNanos, long extractNanos) {
+        Optional<User> match = userService.identify(features, startNanos, detectNanos, extractNanos);
+        if (match.isPresent()) {
+            List<Double> stored = FeatureEncoding.parse(match.get().getFaceEncoding());
+            track.searched(match.get(), stored, faceRecognition.compareFeatures(features, stored),
+                    userService.getLoginThreshold());
+        } else {
+            track.searched(null, null, 0, userService.getLoginThreshold());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.facelogin.controller;
+
+import com.facelogin.model.User;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+/**
+ * Per-connection state of a face stream and the decisions that keep work off most frames:
+ * when to re-scan the whole frame, when a face counts as the same track, when to re-check
+ * the features against the matched user and when to search the identity again. Also
+ * meters the frame rate with a token bucket holding one second of frames.
+ */
+class FaceTrack {
+
+    /** Below this IoU with the previous rectangle the face is treated as a new track. */
+    static final double SAME_TRACK_OVERLAP = 0.3;
+
+    private final int fullDetectEvery;
+    private final int verifyEvery;
+    private final int rematchEvery;
+    private final double maxFps;
+    private double frameTokens;
+    private long lastRefillNanos;
+
+    Rect rect;
+    User user;
+    List<Double> matchedFeatures;
+    double confidence;
+    long frames;
+    long lastFullDetectFrame;
+    long lastVerifyFrame;
+    long lastSearchFrame;
+    long fullDetects;
+    long windowDetects;
+    long searches;
+    long dropped;
+
+    FaceTrack(int fullDetectEvery, int verifyEvery, int rematchEvery, double maxFps, long nowNanos) {
+        this.fullDetectEvery = fullDetectEvery;
+        this.verifyEvery = verifyEvery;
+        this.rematchEvery = rematchEvery;
+        this.maxFps = maxFps;
+        this.frameTokens = Math.max(1, maxFps);
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Take a frame slot; false means the client is over {@code max-fps} and the frame is dropped.
+     */
+    boolean tryAcceptFrame(long nowNanos) {
+        if (maxFps <= 0) return true;
+        frameTokens = Math.min(Math.max(1, maxFps), frameTokens + (nowNanos - lastRefillNanos) * maxFps / 1e9);
+        lastRefillNanos = nowNanos;
+        if (frameTokens < 1) {
+            dropped++;
+            return false;
+        }
+        frameTokens--;
+        return true;
+    }
+
+    long nextFrame() {
+        return ++frames;
+    }
+
+    boolean needsFullScan() {
+        return rect == null || frames - lastFullDetectFrame >= fullDetectEvery;
+    }
+
+    void detected(boolean fullScan) {
+        if (fullScan) {
+            fullDetects++;
+            lastFullDetectFrame = frames;
+        } else {
+            windowDetects++;
+        }
+    }
+
+    /**
+     * Move the track to this frame's face. Returns true when it is a new track: the first
+     * face after none, or one that jumped too far to be the same person.
+     */
+    boolean moveTo(Rect face) {
+        boolean changed = rect == null || overlap(rect, face) < SAME_TRACK_OVERLAP;
+        rect = face;
+        return changed;
+    }
+
+    /**
+     * The face was lost; forget the identity too.
+     */
+    void lost() {
+        rect = null;
+        user = null;
+        matchedFeatures = null;
+        confidence = 0;
+    }
+
+    /**
+     * Whether to extract features on this frame; an unmatched face is retried at the
+     * verify cadence rather than on every frame.
+     */
+    boolean needsVerify(boolean trackChanged) {
+        return trackChanged || frames - lastVerifyFrame >= verifyEvery;
+    }
+
+    /**
+     * Record a feature check. {@code drift} is the distance from the matched user's stored
+     * features (ignored when there is no match). Returns true when the identity must be
+     * searched again: a new track, confidence decayed to zero, or not re-matched for
+     * {@code rematch-every} frames.
+     */
+    boolean verified(boolean trackChanged, double drift, double loginThreshold) {
+        lastVerifyFrame = frames;
+        confidence = matchedFeatures == null ? 0 : 1.0 - drift / loginThreshold;
+        return trackChanged || confidence <= 0 || frames - lastSearchFrame >= rematchEvery;
+    }
+
+    void searched(User match, List<Double> storedFeatures, double distance, double loginThreshold) {
+        searches++;
+        lastSearchFrame = frames;
+        user = match;
+        matchedFeatures = match == null ? null : storedFeatures;
+        confidence = match == null ? 0 : 1.0 - distance / loginThreshold;
+    }
+
+    /**
+     * Intersection over union of two rectangles.
+     */
+    static double overlap(Rect a, Rect b) {
+        int x1 = Math.max(a.x, b.x);
+        int y1 = Math.max(a.y, b.y);
+        int x2 = Math.min(a.x + a.width, b.x + b.width);
+        int y2 = Math.min(a.y + a.height, b.y + b.height);
+        double intersection = Math.max(0, x2 - x1) * (double) Math.max(0, y2 - y1);
+        double union = a.area() + b.area() - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+}
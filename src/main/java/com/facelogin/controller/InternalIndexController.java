@@ -0,0 +1,74 @@
+package com.facelogin.controller;
+
+import com.facelogin.index.ClusterSearch;
+import com.facelogin.index.FaceIndex;
+import com.facelogin.index.IndexWireFormat;
+import com.facelogin.index.RegistrationGuard;
+import com.facelogin.index.SearchHit;
+import com.facelogin.index.ShardRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Node-to-node endpoints for the sharded face index. Not meant to be exposed publicly;
+ * only registered when clustering is enabled, and every call must carry the cluster token.
+ */
+@RestController
+@ConditionalOnProperty(name = "face.cluster.enabled", havingValue = "true")
+@RequestMapping("/internal/index")
+public class InternalIndexController {
+
+    @Autowired
+    private FaceIndex faceIndex;
+
+    @Autowired
+    private ClusterSearch clusterSearch;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private RegistrationGuard registrationGuard;
+
+    @PostMapping(value = "/search", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> search(
+            @RequestHeader(value = ClusterSearch.TOKEN_HEADER, required = false) String token,
+            @RequestParam(value = "k", defaultValue = "1") int k,
+            @RequestParam(value = "pending", defaultValue = "false") boolean includePending,
+            @RequestBody byte[] body) {
+        if (!clusterSearch.isTokenValid(token)) return ResponseEntity.status(403).build();
+        try {
+            float[] query = IndexWireFormat.decodeVector(body);
+            // Pending faces first: one handed over to the index in between is still seen there
+            SearchHit pending = includePending ? registrationGuard.nearestPending(query) : null;
+            List<SearchHit> hits = new ArrayList<>(faceIndex.search(query, Math.max(1, k)));
+            if (pending != null) {
+                hits.add(pending);
+                hits.sort(Comparator.comparingDouble(SearchHit::getDistance));
+                if (hits.size() > Math.max(1, k)) hits.remove(hits.size() - 1);
+            }
+            return ResponseEntity.ok(IndexWireFormat.encodeHits(hits));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PutMapping(value = "/vectors/{userId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> put(
+            @RequestHeader(value = ClusterSearch.TOKEN_HEADER, required = false) String token,
+            @PathVariable Long userId,
+            @RequestBody byte[] body) {
+        if (!clusterSearch.isTokenValid(token)) return ResponseEntity.status(403).build();
+        if (!shardRouter.isLocal(userId)) return ResponseEntity.status(409).build();
+        faceIndex.put(userId, IndexWireFormat.decodeVector(body));
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,201 @@
+package com.facelogin.index;
+
+import com.facelogin.util.FeatureEncoding;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for face searches and index updates, local or sharded.
+ *
+ * With clustering disabled this is a thin wrapper over {@link FaceIndex}. With it enabled
+ * a search is scattered to every other node over the internal binary protocol while the
+ * local shards are searched on the calling thread; per-node top-k lists are then merged.
+ * Nodes that fail or miss the timeout are reported so callers can decide whether a
+ * partial result is acceptable.
+ */
+@Component
+public class ClusterSearch {
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+
+    private final FaceIndex faceIndex;
+    private final ShardRouter router;
+    private final long timeoutMs;
+    private final String token;
+    private final HttpClient httpClient;
+
+    public ClusterSearch(FaceIndex faceIndex,
+                         ShardRouter router,
+                         @Value("${face.cluster.timeout-ms:300}") long timeoutMs,
+                         @Value("${face.cluster.token:}") String token) {
+        this.faceIndex = faceIndex;
+        this.router = router;
+        this.timeoutMs = timeoutMs;
+        this.token = token == null ? "" : token;
+        if (router.isEnabled() && this.token.isBlank()) {
+            throw new IllegalArgumentException("face.cluster.token must be set when face.cluster.enabled=true");
+        }
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+    }
+
+    /**
+     * Search all shards for the {@code k} nearest users.
+     */
+    public SearchResult search(List<Double> features, int k) {
+        return search(features, k, false);
+    }
+
+    /**
+     * Search for registration duplicates: like {@link #search}, plus the faces other nodes
+     * hold for in-flight registrations (see {@link RegistrationGuard#nearestPending}).
+     */
+    public SearchResult searchIncludingPending(List<Double> features, int k) {
+        return search(features, k, true);
+    }
+
+    private SearchResult search(List<Double> features, int k, boolean includePending) {
+        if (!router.isEnabled()) {
+            return new SearchResult(faceIndex.search(features, k), 1, 1, new ArrayList<>());
+        }
+
+        float[] query = FeatureEncoding.toVector(features);
+        byte[] body = IndexWireFormat.encodeVector(query);
+        Map<Integer, CompletableFuture<HttpResponse<byte[]>>> pending = new LinkedHashMap<>();
+        for (int node : router.remoteNodes()) {
+            HttpRequest request = requestBuilder(node, "/internal/index/search?k=" + k + (includePending ? "&pending=true" : ""))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            pending.put(node, httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+        }
+
+        // Local shards are scored while the remote requests are in flight
+        TopK merged = new TopK(k);
+        for (SearchHit hit : faceIndex.search(features, k)) {
+            merged.offer((float) hit.getDistance(), hit.getUserId());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<String> failedNodes = new ArrayList<>();
+        int responded = 1;
+        for (Map.Entry<Integer, CompletableFuture<HttpResponse<byte[]>>> entry : pending.entrySet()) {
+            String node = router.nodeUrl(entry.getKey());
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                HttpResponse<byte[]> response = entry.getValue().get(remaining, TimeUnit.NANOSECONDS);
+                if (response.statusCode() != 200) {
+                    throw new RuntimeException("HTTP " + response.statusCode());
+                }
+                for (SearchHit hit : IndexWireFormat.decodeHits(response.body())) {
+                    merged.offer((float) hit.getDistance(), hit.getUserId());
+                }
+                responded++;
+            } catch (Exception e) {
+                entry.getValue().cancel(true);
+                failedNodes.add(node);
+                System.err.println("⚠️ Shard node " + node + " did not answer: " + e);
+            }
+        }
+
+        List<SearchHit> hits = new ArrayList<>();
+        long[] userIds = merged.sortedPayloads();
+        float[] distances = merged.sortedDistances();
+        for (int i = 0; i < userIds.length; i++) {
+            hits.add(new SearchHit(userIds[i], distances[i]));
+        }
+        return new SearchResult(hits, pending.size() + 1, responded, failedNodes);
+    }
+
+    /**
+     * Put a user's embedding into the index of the node that owns its shard. Returns false
+     * if the owner could not be reached; it still picks the user up from the change log
+     * (IndexSyncService) eventually.
+     */
+    public boolean index(Long userId, List<Double> features) {
+        if (router.isLocal(userId)) {
+            faceIndex.put(userId, features);
+            return true;
+        }
+        int owner = router.ownerOf(userId);
+        HttpRequest request = requestBuilder(owner, "/internal/index/vectors/" + userId)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(
+                        IndexWireFormat.encodeVector(FeatureEncoding.toVector(features))))
+                .build();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("HTTP " + response.statusCode());
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not forward user " + userId + " to shard owner "
+                    + router.nodeUrl(owner) + ": " + e);
+            return false;
+        }
+    }
+
+    public boolean isClustered() {
+        return router.isEnabled();
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Constant-time check of the shared secret sent by another node. Always false when
+     * no token is configured, i.e. when clustering is off.
+     */
+    public boolean isTokenValid(String presented) {
+        if (token.isEmpty() || presented == null) return false;
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HttpRequest.Builder requestBuilder(int node, String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(router.nodeUrl(node) + path))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", IndexWireFormat.CONTENT_TYPE);
+        if (!token.isEmpty()) builder.header(TOKEN_HEADER, token);
+        return builder;
+    }
+
+    /**
+     * Merged hits plus how many nodes contributed to them.
+     */
+    public static class SearchResult {
+        private final List<SearchHit> hits;
+        private final int nodesQueried;
+        private final int nodesResponded;
+        private final List<String> failedNodes;
+
+        public SearchResult(List<SearchHit> hits, int nodesQueried, int nodesResponded, List<String> failedNodes) {
+            this.hits = hits;
+            this.nodesQueried = nodesQueried;
+            this.nodesResponded = nodesResponded;
+            this.failedNodes = failedNodes;
+        }
+
+        public List<SearchHit> getHits() { return hits; }
+        public int getNodesQueried() { return nodesQueried; }
+        public int getNodesResponded() { return nodesResponded; }
+        public List<String> getFailedNodes() { return failedNodes; }
+        public boolean isComplete() { return nodesResponded == nodesQueried; }
+    }
+}
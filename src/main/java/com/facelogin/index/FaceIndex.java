@@ -0,0 +1,418 @@
+package com.facelogin.index;
+
+import com.facelogin.model.User;
+import com.facelogin.repository.UserRepository;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resident in-memory index of every registered face embedding.
+ *
+ * Vectors are kept as a flat float array (1 KB per user instead of ~6 KB of boxed
+ * doubles) plus an optional quantized copy used for a cheap first pass:
+ * <ul>
+ *   <li>{@code none} — exact float scan only</li>
+ *   <li>{@code int8} — per-vector scaled int8 codes, integer dot products</li>
+ *   <li>{@code pq}   — product-quantized codes scored via a per-query lookup table</li>
+ * </ul>
+ * Quantized modes re-rank the best {@code rerank-candidates} with exact float distances,
+ * so the distances returned always match {@link OpenCVFaceRecognition#compareFeatures}.
+ * PQ codebooks are trained once {@code pq.min-training-size} faces are resident and
+ * retrained whenever the index has doubled since, so faces registered later are still
+ * encoded by codebooks that have seen their distribution; a full resync also retrains.
+ * Exact scans run through {@link PartitionedScorer}, which parallelises large sets.
+ * In a sharded cluster only users owned by this node (see {@link ShardRouter}) are resident.
+ */
+@Component
+public class FaceIndex {
+
+    public enum Quantization { NONE, INT8, PQ }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long PQ_SEED = 42L;
+
+    private final UserRepository userRepository;
+    private final PartitionedScorer scorer;
+    private final ShardRouter router;
+    private final OpenCVFaceRecognition faceRecognition;
+    private final int dim;
+    private final Quantization quantization;
+    private final int rerankCandidates;
+    private final int pqSubspaces;
+    private final int pqMinTrainingSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    private int size = 0;
+    private long[] ids = new long[0];
+    private float[] vectors = new float[0];
+    private final Map<Long, Integer> slotById = new HashMap<>();
+
+    // int8 mode
+    private byte[] int8Codes = new byte[0];
+    private float[] int8Scales = new float[0];
+    private float[] int8Norms = new float[0];
+
+    // pq mode (codebooks trained once enough vectors are resident, retrained on doubling)
+    private ProductQuantizer productQuantizer;
+    private byte[] pqCodes = new byte[0];
+    private int pqTrainedSize = 0;
+    private volatile boolean pqTraining = false;
+    private int generation = 0; // bumped by load so a retrain started before it is dropped
+
+    public FaceIndex(UserRepository userRepository,
+                     OpenCVFaceRecognition faceRecognition,
+                     PartitionedScorer scorer,
+                     ShardRouter router,
+                     @Value("${face.index.quantization:int8}") String quantization,
+                     @Value("${face.index.rerank-candidates:32}") int rerankCandidates,
+                     @Value("${face.index.pq.subspaces:16}") int pqSubspaces,
+                     @Value("${face.index.pq.min-training-size:1024}") int pqMinTrainingSize) {
+        this.userRepository = userRepository;
+        this.scorer = scorer;
+        this.router = router;
+        this.faceRecognition = faceRecognition;
+        this.dim = faceRecognition.getFeatureSize();
+        this.quantization = Quantization.valueOf(quantization.trim().toUpperCase());
+        this.rerankCandidates = Math.max(1, rerankCandidates);
+        this.pqSubspaces = pqSubspaces;
+        this.pqMinTrainingSize = Math.max(1, pqMinTrainingSize);
+    }
+
+    /**
+     * Load all users from the database on first use.
+     */
+    public void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            load(userRepository.findAll());
+        }
+    }
+
+    /**
+     * Replace the index contents with the given users.
+     */
+    public void load(Collection<User> users) {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            slotById.clear();
+            productQuantizer = null;
+            pqTrainedSize = 0;
+            generation++;
+            int skipped = 0;
+            for (User user : users) {
+                if (!router.isLocal(user.getId())) continue;
+                float[] vector = toIndexVector(user);
+                if (vector == null) {
+                    skipped++;
+                    continue;
+                }
+                append(user.getId(), vector);
+            }
+            maybeTrainProductQuantizer();
+            loaded = true;
+            System.out.println("📇 Face index loaded: " + size + " vectors (" + quantization.name().toLowerCase()
+                    + ", skipped " + skipped + ")");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Insert or replace the embedding of one user.
+     */
+    public void put(Long userId, List<Double> features) {
+        put(userId, FeatureEncoding.toVector(features));
+    }
+
+    public void put(Long userId, float[] vector) {
+        if (vector.length != dim) {
+            System.out.println("⚠️ Not indexing user " + userId + ": " + vector.length + " features, expected " + dim);
+            return;
+        }
+        if (!router.isLocal(userId)) return; // owned by another node, which indexes it itself
+        float[] trainingSet = null;
+        int trainingGeneration = 0;
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotById.get(userId);
+            if (slot != null) {
+                System.arraycopy(vector, 0, vectors, slot * dim, dim);
+                encode(slot);
+            } else {
+                append(userId, vector);
+                if (needsProductQuantizerTraining()) {
+                    pqTraining = true;
+                    trainingSet = trainingSample();
+                    trainingGeneration = generation;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // k-means over up to 20k vectors takes seconds: run it without blocking searches,
+        // which keep using the old codebooks (or the exact scan) until the swap
+        if (trainingSet != null) retrainProductQuantizer(trainingSet, trainingGeneration);
+    }
+
+    /**
+     * Whether this node owns the user's shard (always true without clustering).
+     */
+    public boolean isLocal(Long userId) {
+        return router.isLocal(userId);
+    }
+
+    public void remove(Long userId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotById.remove(userId);
+            if (slot == null) return;
+            int last = size - 1;
+            if (slot != last) {
+                // Move the last entry into the freed slot
+                ids[slot] = ids[last];
+                System.arraycopy(vectors, last * dim, vectors, slot * dim, dim);
+                copyCodes(last, slot);
+                slotById.put(ids[slot], slot);
+            }
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the {@code k} nearest users to the given features.
+     */
+    public List<SearchHit> search(List<Double> features, int k) {
+        return search(FeatureEncoding.toVector(features), k);
+    }
+
+    public List<SearchHit> search(float[] query, int k) {
+        ensureLoaded();
+        if (query.length != dim) {
+            throw new RuntimeException("Feature size mismatch: " + query.length + " vs index dimension " + dim);
+        }
+
+        lock.readLock().lock();
+        try {
+            if (size == 0) return new ArrayList<>();
+
+            TopK exact;
+            if (quantization == Quantization.NONE || size <= rerankCandidates
+                    || (quantization == Quantization.PQ && productQuantizer == null)) {
+                exact = scorer.topK(query, vectors, ids, size, dim, k);
+            } else {
+                exact = new TopK(k);
+                TopK candidates = quantization == Quantization.INT8
+                        ? int8Candidates(query, Math.max(k, rerankCandidates))
+                        : pqCandidates(query, Math.max(k, rerankCandidates));
+                for (long slot : candidates.sortedPayloads()) {
+                    exact.offer(squaredDistance(query, (int) slot), ids[(int) slot]);
+                }
+            }
+            return toHits(exact);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    private TopK int8Candidates(float[] query, int count) {
+        byte[] queryCodes = new byte[dim];
+        float queryScale = ScalarQuantizer.encode(query, 0, dim, queryCodes, 0);
+        float queryNorm = ScalarQuantizer.squaredNorm(queryCodes, 0, dim, queryScale);
+        TopK candidates = new TopK(count);
+        for (int slot = 0; slot < size; slot++) {
+            float d = ScalarQuantizer.squaredDistance(queryCodes, 0, queryScale, queryNorm,
+                    int8Codes, slot * dim, int8Scales[slot], int8Norms[slot], dim);
+            candidates.offer(d, slot);
+        }
+        return candidates;
+    }
+
+    private TopK pqCandidates(float[] query, int count) {
+        float[] table = productQuantizer.distanceTable(query);
+        int codeSize = productQuantizer.getSubspaces();
+        TopK candidates = new TopK(count);
+        for (int slot = 0; slot < size; slot++) {
+            candidates.offer(productQuantizer.distance(table, pqCodes, slot * codeSize), slot);
+        }
+        return candidates;
+    }
+
+    private float squaredDistance(float[] query, int slot) {
+        return PartitionedScorer.squaredDistance(query, vectors, slot * dim, dim);
+    }
+
+    private List<SearchHit> toHits(TopK topK) {
+        long[] userIds = topK.sortedPayloads();
+        float[] distances = topK.sortedDistances();
+        List<SearchHit> hits = new ArrayList<>(userIds.length);
+        for (int i = 0; i < userIds.length; i++) {
+            hits.add(new SearchHit(userIds[i], Math.sqrt(distances[i])));
+        }
+        return hits;
+    }
+
+    /**
+     * Whether a stored user can be matched against queries from the active extractor.
+     */
+    public boolean isIndexable(User user) {
+        return user.getFaceEncoding() != null && !user.getFaceEncoding().isEmpty()
+                && user.getExtractorVersion() == faceRecognition.getActiveExtractorVersion();
+    }
+
+    private float[] toIndexVector(User user) {
+        if (!isIndexable(user)) return null;
+        List<Double> features = FeatureEncoding.parse(user.getFaceEncoding());
+        if (features.size() != dim) {
+            System.out.println("⚠️ Not indexing " + user.getUsername() + ": " + features.size()
+                    + " features, expected " + dim);
+            return null;
+        }
+        return FeatureEncoding.toVector(features);
+    }
+
+    private void append(Long userId, float[] vector) {
+        ensureCapacity(size + 1);
+        int slot = size++;
+        ids[slot] = userId;
+        System.arraycopy(vector, 0, vectors, slot * dim, dim);
+        slotById.put(userId, slot);
+        encode(slot);
+    }
+
+    private void encode(int slot) {
+        if (quantization == Quantization.INT8) {
+            float scale = ScalarQuantizer.encode(vectors, slot * dim, dim, int8Codes, slot * dim);
+            int8Scales[slot] = scale;
+            int8Norms[slot] = ScalarQuantizer.squaredNorm(int8Codes, slot * dim, dim, scale);
+        } else if (quantization == Quantization.PQ && productQuantizer != null) {
+            productQuantizer.encode(vectors, slot * dim, pqCodes, slot * productQuantizer.getSubspaces());
+        }
+    }
+
+    private void copyCodes(int from, int to) {
+        if (quantization == Quantization.INT8) {
+            System.arraycopy(int8Codes, from * dim, int8Codes, to * dim, dim);
+            int8Scales[to] = int8Scales[from];
+            int8Norms[to] = int8Norms[from];
+        } else if (quantization == Quantization.PQ && productQuantizer != null) {
+            int codeSize = productQuantizer.getSubspaces();
+            System.arraycopy(pqCodes, from * codeSize, pqCodes, to * codeSize, codeSize);
+        }
+    }
+
+    private void maybeTrainProductQuantizer() {
+        if (quantization != Quantization.PQ || size < pqMinTrainingSize) return;
+        long start = System.currentTimeMillis();
+        installProductQuantizer(ProductQuantizer.train(vectors, size, dim, pqSubspaces, PQ_SEED), size);
+        System.out.println("📇 Trained PQ codebooks on " + size + " vectors in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private boolean needsProductQuantizerTraining() {
+        if (quantization != Quantization.PQ || pqTraining) return false;
+        return productQuantizer == null ? size >= pqMinTrainingSize : size >= 2L * pqTrainedSize;
+    }
+
+    /**
+     * Copy of the vectors to train on, evenly strided down to the trainer's sample cap.
+     */
+    private float[] trainingSample() {
+        int rows = Math.min(size, ProductQuantizer.MAX_TRAINING_SAMPLES);
+        float[] sample = new float[rows * dim];
+        for (int i = 0; i < rows; i++) {
+            int slot = (int) ((long) i * size / rows);
+            System.arraycopy(vectors, slot * dim, sample, i * dim, dim);
+        }
+        return sample;
+    }
+
+    private void retrainProductQuantizer(float[] trainingSet, int trainingGeneration) {
+        try {
+            long start = System.currentTimeMillis();
+            ProductQuantizer trained = ProductQuantizer.train(trainingSet, trainingSet.length / dim, dim, pqSubspaces, PQ_SEED);
+            int trainedSize;
+            lock.writeLock().lock();
+            try {
+                if (trainingGeneration != generation) return; // reloaded meanwhile, with its own codebooks
+                trainedSize = size;
+                installProductQuantizer(trained, size);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            System.out.println("📇 Retrained PQ codebooks for " + trainedSize + " vectors in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            System.err.println("❌ PQ retraining failed, keeping the old codebooks: " + e.getMessage());
+        } finally {
+            pqTraining = false;
+        }
+    }
+
+    private void installProductQuantizer(ProductQuantizer trained, int trainedSize) {
+        productQuantizer = trained;
+        pqTrainedSize = trainedSize;
+        pqCodes = new byte[ids.length * pqSubspaces];
+        for (int slot = 0; slot < size; slot++) {
+            encode(slot);
+        }
+    }
+
+    /**
+     * Index size the current PQ codebooks were installed at (0 = untrained).
+     */
+    int getProductQuantizerTrainedSize() {
+        lock.readLock().lock();
+        try {
+            return pqTrainedSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) return;
+        int capacity = Math.max(INITIAL_CAPACITY, Math.max(required, ids.length * 2));
+        ids = Arrays.copyOf(ids, capacity);
+        vectors = Arrays.copyOf(vectors, capacity * dim);
+        if (quantization == Quantization.INT8) {
+            int8Codes = Arrays.copyOf(int8Codes, capacity * dim);
+            int8Scales = Arrays.copyOf(int8Scales, capacity);
+            int8Norms = Arrays.copyOf(int8Norms, capacity);
+        } else if (quantization == Quantization.PQ) {
+            pqCodes = Arrays.copyOf(pqCodes, capacity * pqSubspaces);
+        }
+    }
+}
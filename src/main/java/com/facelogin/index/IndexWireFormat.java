@@ -0,0 +1,61 @@
+package com.facelogin.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding used between cluster nodes.
+ *
+ * <pre>
+ * vector: float32[dim]                              (little endian)
+ * hits:   int32 count, then count × (int64 userId, float64 distance)
+ * </pre>
+ */
+public final class IndexWireFormat {
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private IndexWireFormat() {}
+
+    public static byte[] encodeVector(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : vector) buffer.putFloat(value);
+        return buffer.array();
+    }
+
+    public static float[] decodeVector(byte[] bytes) {
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("Vector payload length " + bytes.length + " is not a multiple of 4");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[bytes.length / Float.BYTES];
+        for (int i = 0; i < vector.length; i++) vector[i] = buffer.getFloat();
+        return vector;
+    }
+
+    public static byte[] encodeHits(List<SearchHit> hits) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + hits.size() * (Long.BYTES + Double.BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(hits.size());
+        for (SearchHit hit : hits) {
+            buffer.putLong(hit.getUserId());
+            buffer.putDouble(hit.getDistance());
+        }
+        return buffer.array();
+    }
+
+    public static List<SearchHit> decodeHits(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() != count * (Long.BYTES + Double.BYTES)) {
+            throw new IllegalArgumentException("Malformed hits payload");
+        }
+        List<SearchHit> hits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hits.add(new SearchHit(buffer.getLong(), buffer.getDouble()));
+        }
+        return hits;
+    }
+}
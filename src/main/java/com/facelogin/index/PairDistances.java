@@ -0,0 +1,235 @@
+package com.facelogin.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Genuine/impostor distance distributions over all pairs of a labeled embedding set.
+ *
+ * Every pair {@code i < j} is scored with {@link PartitionedScorer#squaredDistance} on a
+ * ForkJoin pool; leaves accumulate into fixed-width histograms which are summed on the
+ * way back up, so memory stays O(bins) whatever the number of pairs. FAR/FRR at any bin
+ * edge then come from cumulative counts. Distances are Euclidean, the same scale as
+ * {@code OpenCVFaceRecognition#compareFeatures} and the login/registration thresholds.
+ */
+public class PairDistances {
+
+    private static final long PAIRS_PER_LEAF = 1 << 16;
+
+    private final double binWidth;
+    private final long[] genuine;
+    private final long[] impostor;
+    private final long[] genuineBelow;   // genuineBelow[b] = genuine pairs in bins < b
+    private final long[] impostorBelow;
+    private final long genuineTotal;
+    private final long impostorTotal;
+    private final double genuineSum;
+    private final double impostorSum;
+
+    private PairDistances(double binWidth, Histograms histograms) {
+        this.binWidth = binWidth;
+        this.genuine = histograms.genuine;
+        this.impostor = histograms.impostor;
+        int bins = genuine.length;
+        this.genuineBelow = new long[bins + 1];
+        this.impostorBelow = new long[bins + 1];
+        for (int b = 0; b < bins; b++) {
+            genuineBelow[b + 1] = genuineBelow[b] + genuine[b];
+            impostorBelow[b + 1] = impostorBelow[b] + impostor[b];
+        }
+        this.genuineTotal = genuineBelow[bins];
+        this.impostorTotal = impostorBelow[bins];
+        this.genuineSum = histograms.genuineSum;
+        this.impostorSum = histograms.impostorSum;
+    }
+
+    /**
+     * Score all pairs of the first {@code count} rows of {@code vectors}.
+     */
+    public static PairDistances compute(float[] vectors, int[] labels, int count, int dim, int bins, ForkJoinPool pool) {
+        // No pair can be further apart than twice the largest norm
+        double maxNorm = 0;
+        for (int row = 0; row < count; row++) {
+            double norm = 0;
+            for (int i = 0; i < dim; i++) norm += vectors[row * dim + i] * vectors[row * dim + i];
+            maxNorm = Math.max(maxNorm, Math.sqrt(norm));
+        }
+        double binWidth = Math.max(2 * maxNorm, 1e-6) / bins;
+        Histograms histograms = pool.invoke(new PairTask(vectors, labels, count, dim, bins, binWidth, 0, count));
+        return new PairDistances(binWidth, histograms);
+    }
+
+    public long getGenuinePairs() { return genuineTotal; }
+    public long getImpostorPairs() { return impostorTotal; }
+    public double getGenuineMean() { return genuineTotal == 0 ? 0 : genuineSum / genuineTotal; }
+    public double getImpostorMean() { return impostorTotal == 0 ? 0 : impostorSum / impostorTotal; }
+
+    /**
+     * Fraction of impostor pairs that would be accepted (distance below the threshold).
+     */
+    public double far(double threshold) {
+        return impostorTotal == 0 ? 0 : (double) impostorBelow[edge(threshold)] / impostorTotal;
+    }
+
+    /**
+     * Fraction of genuine pairs that would be rejected (distance at or above the threshold).
+     */
+    public double frr(double threshold) {
+        return genuineTotal == 0 ? 0 : 1.0 - (double) genuineBelow[edge(threshold)] / genuineTotal;
+    }
+
+    /**
+     * Largest threshold whose FAR does not exceed {@code targetFar}.
+     */
+    public double thresholdForFar(double targetFar) {
+        int best = 0;
+        for (int b = 0; b < impostorBelow.length; b++) {
+            if (impostorTotal > 0 && (double) impostorBelow[b] / impostorTotal > targetFar) break;
+            best = b;
+        }
+        return best * binWidth;
+    }
+
+    /**
+     * Smallest threshold whose FRR does not exceed {@code targetFrr}.
+     */
+    public double thresholdForFrr(double targetFrr) {
+        for (int b = 0; b < genuineBelow.length; b++) {
+            if (genuineTotal == 0 || 1.0 - (double) genuineBelow[b] / genuineTotal <= targetFrr) return b * binWidth;
+        }
+        return (genuineBelow.length - 1) * binWidth;
+    }
+
+    /**
+     * Threshold where FAR and FRR cross.
+     */
+    public double eerThreshold() {
+        int best = 0;
+        double bestGap = Double.MAX_VALUE;
+        for (int b = 0; b < genuineBelow.length; b++) {
+            double gap = Math.abs(far(b * binWidth) - frr(b * binWidth));
+            if (gap < bestGap) {
+                bestGap = gap;
+                best = b;
+            }
+        }
+        return best * binWidth;
+    }
+
+    public double eer() {
+        double threshold = eerThreshold();
+        return (far(threshold) + frr(threshold)) / 2;
+    }
+
+    /**
+     * FAR/FRR sampled at {@code points} evenly spaced thresholds up to the largest distance seen.
+     */
+    public List<double[]> curve(int points) {
+        int lastBin = genuine.length - 1;
+        while (lastBin > 0 && genuine[lastBin] == 0 && impostor[lastBin] == 0) lastBin--;
+        double max = (lastBin + 1) * binWidth;
+        List<double[]> curve = new ArrayList<>(points + 1);
+        for (int p = 0; p <= points; p++) {
+            double threshold = max * p / points;
+            curve.add(new double[]{threshold, far(threshold), frr(threshold)});
+        }
+        return curve;
+    }
+
+    private int edge(double threshold) {
+        return (int) Math.max(0, Math.min(genuine.length, Math.ceil(threshold / binWidth - 1e-9)));
+    }
+
+    private static class Histograms {
+        final long[] genuine;
+        final long[] impostor;
+        double genuineSum;
+        double impostorSum;
+
+        Histograms(int bins) {
+            genuine = new long[bins];
+            impostor = new long[bins];
+        }
+
+        Histograms add(Histograms other) {
+            for (int b = 0; b < genuine.length; b++) {
+                genuine[b] += other.genuine[b];
+                impostor[b] += other.impostor[b];
+            }
+            genuineSum += other.genuineSum;
+            impostorSum += other.impostorSum;
+            return this;
+        }
+    }
+
+    /**
+     * Scores rows {@code [from, to)} against every later row, splitting while the range
+     * holds more than {@link #PAIRS_PER_LEAF} pairs.
+     */
+    private static class PairTask extends RecursiveTask<Histograms> {
+        private final float[] vectors;
+        private final int[] labels;
+        private final int count;
+        private final int dim;
+        private final int bins;
+        private final double binWidth;
+        private final int from;
+        private final int to;
+
+        PairTask(float[] vectors, int[] labels, int count, int dim, int bins, double binWidth, int from, int to) {
+            this.vectors = vectors;
+            this.labels = labels;
+            this.count = count;
+            this.dim = dim;
+            this.bins = bins;
+            this.binWidth = binWidth;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Histograms compute() {
+            long pairs = pairsFrom(from) - pairsFrom(to);
+            if (pairs <= PAIRS_PER_LEAF || to - from == 1) return scoreRows();
+
+            // Split on pair count, not row count: early rows have many more partners
+            long half = pairsFrom(from) - pairs / 2;
+            int mid = from + 1;
+            while (mid < to - 1 && pairsFrom(mid) > half) mid++;
+            PairTask left = new PairTask(vectors, labels, count, dim, bins, binWidth, from, mid);
+            PairTask right = new PairTask(vectors, labels, count, dim, bins, binWidth, mid, to);
+            left.fork();
+            return right.compute().add(left.join());
+        }
+
+        private Histograms scoreRows() {
+            Histograms histograms = new Histograms(bins);
+            float[] query = new float[dim];
+            for (int i = from; i < to; i++) {
+                System.arraycopy(vectors, i * dim, query, 0, dim);
+                for (int j = i + 1; j < count; j++) {
+                    double distance = Math.sqrt(PartitionedScorer.squaredDistance(query, vectors, j * dim, dim));
+                    int bin = (int) Math.min(bins - 1, distance / binWidth);
+                    if (labels[i] == labels[j]) {
+                        histograms.genuine[bin]++;
+                        histograms.genuineSum += distance;
+                    } else {
+                        histograms.impostor[bin]++;
+                        histograms.impostorSum += distance;
+                    }
+                }
+            }
+            return histograms;
+        }
+
+        /**
+         * Pairs (i, j) with i >= row and j > i.
+         */
+        private long pairsFrom(int row) {
+            long remaining = count - row;
+            return remaining * (remaining - 1) / 2;
+        }
+    }
+}
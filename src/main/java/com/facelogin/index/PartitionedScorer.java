@@ -0,0 +1,108 @@
+package com.facelogin.index;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact top-k scoring over a flat vector array, split into cache-sized blocks and
+ * scored in parallel on a dedicated ForkJoin pool.
+ *
+ * Each partition keeps its own {@link TopK} heap; heaps are merged on the calling
+ * thread. The fan-out shrinks as more searches run concurrently so that simultaneous
+ * logins share the pool instead of each claiming every worker.
+ */
+@Component
+public class PartitionedScorer {
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int blockBytes;
+    private final int minParallelSize;
+    private final AtomicInteger activeSearches = new AtomicInteger();
+
+    public PartitionedScorer(@Value("${face.index.parallel.threads:0}") int threads,
+                             @Value("${face.index.parallel.block-kb:256}") int blockKb,
+                             @Value("${face.index.parallel.min-size:8192}") int minParallelSize) {
+        this.parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.blockBytes = Math.max(1, blockKb) * 1024;
+        this.minParallelSize = Math.max(1, minParallelSize);
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("face-scorer-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Exact k nearest rows of {@code vectors[0..size)} to the query; payloads are {@code ids}.
+     */
+    public TopK topK(float[] query, float[] vectors, long[] ids, int size, int dim, int k) {
+        int active = activeSearches.incrementAndGet();
+        try {
+            int blockRows = Math.max(1, blockBytes / (dim * Float.BYTES));
+            int blocks = (size + blockRows - 1) / blockRows;
+            int partitions = size < minParallelSize ? 1 : Math.max(1, Math.min(blocks, parallelism / active));
+            if (partitions == 1) {
+                return scoreRange(query, vectors, ids, 0, size, dim, k);
+            }
+
+            // Partition boundaries stay aligned to whole blocks
+            int rowsPerPartition = ((blocks + partitions - 1) / partitions) * blockRows;
+            List<ForkJoinTask<TopK>> tasks = new ArrayList<>(partitions);
+            for (int from = 0; from < size; from += rowsPerPartition) {
+                int start = from;
+                int end = Math.min(size, from + rowsPerPartition);
+                tasks.add(pool.submit(() -> scoreRange(query, vectors, ids, start, end, dim, k)));
+            }
+
+            TopK merged = new TopK(k);
+            for (ForkJoinTask<TopK> task : tasks) {
+                merged.merge(task.join());
+            }
+            return merged;
+        } finally {
+            activeSearches.decrementAndGet();
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getActiveSearches() {
+        return activeSearches.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    static TopK scoreRange(float[] query, float[] vectors, long[] ids, int start, int end, int dim, int k) {
+        TopK topK = new TopK(k);
+        for (int row = start; row < end; row++) {
+            topK.offer(squaredDistance(query, vectors, row * dim, dim), ids[row]);
+        }
+        return topK;
+    }
+
+    /**
+     * Squared Euclidean distance between {@code query} and the row starting at {@code offset}.
+     */
+    public static float squaredDistance(float[] query, float[] vectors, int offset, int dim) {
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            float diff = query[i] - vectors[offset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,162 @@
+package com.facelogin.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization: the vector is split into {@code subspaces} equal slices and
+ * each slice is replaced by the index of its nearest centroid in a per-slice codebook
+ * trained with k-means. Distances to a query are computed asymmetrically from a
+ * lookup table built once per query (ADC).
+ */
+public final class ProductQuantizer {
+
+    private static final int MAX_CENTROIDS = 256; // one byte per code
+    private static final int TRAINING_ITERATIONS = 8;
+    static final int MAX_TRAINING_SAMPLES = 20_000;
+
+    private final int dim;
+    private final int subspaces;
+    private final int subDim;
+    private final int centroids;
+    private final float[] codebooks; // [subspace][centroid][subDim]
+
+    private ProductQuantizer(int dim, int subspaces, int centroids, float[] codebooks) {
+        this.dim = dim;
+        this.subspaces = subspaces;
+        this.subDim = dim / subspaces;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Train codebooks on the first {@code count} vectors of a flat row-major array.
+     */
+    public static ProductQuantizer train(float[] data, int count, int dim, int subspaces, long seed) {
+        if (subspaces <= 0 || dim % subspaces != 0) {
+            throw new IllegalArgumentException("Dimension " + dim + " not divisible into " + subspaces + " subspaces");
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Cannot train product quantizer without data");
+        }
+        Random random = new Random(seed);
+        int subDim = dim / subspaces;
+        int centroids = Math.min(MAX_CENTROIDS, count);
+
+        // Subsample large sets; k-means quality saturates well before this
+        int samples = Math.min(count, MAX_TRAINING_SAMPLES);
+        int[] sampleRows = sampleRows(count, samples, random);
+
+        float[] codebooks = new float[subspaces * centroids * subDim];
+        int[] assignment = new int[samples];
+        float[] sums = new float[centroids * subDim];
+        int[] counts = new int[centroids];
+
+        for (int s = 0; s < subspaces; s++) {
+            int codebookOffset = s * centroids * subDim;
+            int sliceOffset = s * subDim;
+
+            // Initialise from distinct sample rows
+            for (int c = 0; c < centroids; c++) {
+                System.arraycopy(data, sampleRows[c] * dim + sliceOffset, codebooks, codebookOffset + c * subDim, subDim);
+            }
+
+            for (int iter = 0; iter < TRAINING_ITERATIONS; iter++) {
+                for (int i = 0; i < samples; i++) {
+                    assignment[i] = nearest(codebooks, codebookOffset, centroids, subDim,
+                            data, sampleRows[i] * dim + sliceOffset);
+                }
+                Arrays.fill(sums, 0f);
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < samples; i++) {
+                    int c = assignment[i];
+                    int src = sampleRows[i] * dim + sliceOffset;
+                    for (int d = 0; d < subDim; d++) {
+                        sums[c * subDim + d] += data[src + d];
+                    }
+                    counts[c]++;
+                }
+                for (int c = 0; c < centroids; c++) {
+                    if (counts[c] == 0) continue; // keep previous centroid for empty clusters
+                    for (int d = 0; d < subDim; d++) {
+                        codebooks[codebookOffset + c * subDim + d] = sums[c * subDim + d] / counts[c];
+                    }
+                }
+            }
+        }
+        return new ProductQuantizer(dim, subspaces, centroids, codebooks);
+    }
+
+    public void encode(float[] src, int srcOffset, byte[] codes, int codeOffset) {
+        for (int s = 0; s < subspaces; s++) {
+            int c = nearest(codebooks, s * centroids * subDim, centroids, subDim, src, srcOffset + s * subDim);
+            codes[codeOffset + s] = (byte) c;
+        }
+    }
+
+    /**
+     * Per-query table of squared distances from each query slice to every centroid.
+     */
+    public float[] distanceTable(float[] query) {
+        float[] table = new float[subspaces * centroids];
+        for (int s = 0; s < subspaces; s++) {
+            int codebookOffset = s * centroids * subDim;
+            int sliceOffset = s * subDim;
+            for (int c = 0; c < centroids; c++) {
+                table[s * centroids + c] = squaredDistance(codebooks, codebookOffset + c * subDim,
+                        query, sliceOffset, subDim);
+            }
+        }
+        return table;
+    }
+
+    public float distance(float[] table, byte[] codes, int codeOffset) {
+        float sum = 0f;
+        for (int s = 0; s < subspaces; s++) {
+            sum += table[s * centroids + (codes[codeOffset + s] & 0xFF)];
+        }
+        return sum;
+    }
+
+    public int getDimension() { return dim; }
+    public int getSubspaces() { return subspaces; }
+    public int getCentroids() { return centroids; }
+
+    private static int nearest(float[] codebooks, int codebookOffset, int centroids, int subDim,
+                               float[] src, int srcOffset) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids; c++) {
+            float d = squaredDistance(codebooks, codebookOffset + c * subDim, src, srcOffset, subDim);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static int[] sampleRows(int count, int samples, Random random) {
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) rows[i] = i;
+        // Partial Fisher-Yates shuffle: first `samples` entries become a uniform sample
+        for (int i = 0; i < samples; i++) {
+            int j = i + random.nextInt(count - i);
+            int tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
+        int[] result = new int[samples];
+        System.arraycopy(rows, 0, result, 0, samples);
+        return result;
+    }
+}
@@ -0,0 +1,222 @@
+package com.facelogin.index;
+
+import com.facelogin.util.FeatureEncoding;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reservations for registrations that are in flight.
+ *
+ * Usernames and emails are claimed with an atomic put-if-absent so two requests for the
+ * same name cannot both pass the existence check. Faces cannot be hashed, so a short lock
+ * covers a scan of the (small) set of pending faces and the insert of the new face; the
+ * k-NN query against the committed index (all shards, via {@link ClusterSearch}) runs
+ * after the lock is released.
+ *
+ * A face stays pending until its shard owner has indexed it (see {@link #index}), so at
+ * any time it is in a pending set, the owner's index, or both. With clustering enabled the
+ * pending faces of every node are part of the registration search (they come back as
+ * {@link #IN_FLIGHT_USER_ID} hits), and a face is held for a further two search timeouts
+ * after the owner confirms so that a scatter that read the owner before the put still
+ * finds it here. If forwarding to the owner fails, the face is held and the forward
+ * retried until the owner accepts it.
+ */
+@Component
+public class RegistrationGuard {
+
+    /** User id of hits that are a pending registration on another node, not a user. */
+    public static final long IN_FLIGHT_USER_ID = -1;
+
+    private final ClusterSearch clusterSearch;
+    private final long holdAfterIndexNanos;
+    private final ConcurrentHashMap<String, Reservation> pendingUsernames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Reservation> pendingEmails = new ConcurrentHashMap<>();
+    private final List<Reservation> pendingFaces = new ArrayList<>();
+    private final ReentrantLock faceLock = new ReentrantLock();
+    private final ConcurrentHashMap<Long, Reservation> handoffs = new ConcurrentHashMap<>();
+
+    public RegistrationGuard(ClusterSearch clusterSearch) {
+        this.clusterSearch = clusterSearch;
+        this.holdAfterIndexNanos = clusterSearch.isClustered()
+                ? TimeUnit.MILLISECONDS.toNanos(2 * clusterSearch.getTimeoutMs()) : 0;
+    }
+
+    /**
+     * Claim a username and email for the duration of one registration.
+     */
+    public Reservation reserveIdentity(String username, String email) {
+        Reservation reservation = new Reservation(username, email);
+        if (pendingUsernames.putIfAbsent(username, reservation) != null) {
+            throw new RuntimeException("Username already exists");
+        }
+        if (pendingEmails.putIfAbsent(email, reservation) != null) {
+            pendingUsernames.remove(username, reservation);
+            throw new RuntimeException("Email already exists");
+        }
+        return reservation;
+    }
+
+    /**
+     * Check the face against in-flight and committed registrations and, if it is new,
+     * hold it until {@link #release} is called.
+     *
+     * Only the pending-set scan and insert run under the lock; the (possibly remote)
+     * search of committed and other nodes' pending faces runs after it is released. That
+     * is still race-free: a registration that finishes while this one is searching was
+     * either visible in a pending set, or had already been put into its owner's index
+     * before its face was released, so the search sees it.
+     */
+    public void reserveFace(Reservation reservation, List<Double> features, double threshold) {
+        float[] vector = FeatureEncoding.toVector(features);
+        faceLock.lock();
+        try {
+            for (Reservation pending : pendingFaces) {
+                double distance = Math.sqrt(squaredDistance(vector, pending.face));
+                if (distance < threshold) {
+                    System.out.println("❌ Duplicate detected with in-flight registration " + pending.username
+                            + " (distance: " + distance + ")");
+                    throw new RuntimeException("This face is already registered with another account");
+                }
+            }
+            reservation.face = vector;
+            pendingFaces.add(reservation);
+        } finally {
+            faceLock.unlock();
+        }
+
+        boolean clear = false;
+        try {
+            ClusterSearch.SearchResult result = clusterSearch.searchIncludingPending(features, 1);
+            if (!result.isComplete()) {
+                // A missing shard could hold the duplicate; fail closed for registration
+                throw new RuntimeException("Face index temporarily unavailable (" + result.getFailedNodes()
+                        + " not reachable), please try again");
+            }
+            List<SearchHit> hits = result.getHits();
+            if (!hits.isEmpty() && hits.get(0).getDistance() < threshold
+                    && hits.get(0).getUserId() == IN_FLIGHT_USER_ID) {
+                System.out.println("❌ Duplicate detected with in-flight registration on another node (distance: "
+                        + hits.get(0).getDistance() + ")");
+                throw new RuntimeException("This face is already registered with another account");
+            }
+            if (!hits.isEmpty() && hits.get(0).getDistance() < threshold) {
+                System.out.println("❌ Duplicate detected with user " + hits.get(0).getUserId()
+                        + " (distance: " + hits.get(0).getDistance() + ")");
+                throw new RuntimeException("This face is already registered with another account");
+            }
+            clear = true;
+        } finally {
+            if (!clear) releaseFace(reservation);
+        }
+        System.out.println("✅ No duplicate faces found");
+    }
+
+    /**
+     * Put a saved user's face into its shard owner's index. Call before {@link #release};
+     * with clustering enabled, or if the owner could not be reached, the face stays
+     * reserved after the release until {@link #completeHandoffs} lets it go.
+     */
+    public void index(Reservation reservation, Long userId, List<Double> features) {
+        boolean indexed = clusterSearch.index(userId, features);
+        if (indexed && holdAfterIndexNanos == 0) return;
+        reservation.userId = userId;
+        reservation.features = features;
+        reservation.holdUntilNanos = indexed ? System.nanoTime() + holdAfterIndexNanos : 0;
+        handoffs.put(userId, reservation);
+    }
+
+    public void release(Reservation reservation) {
+        if (reservation.userId == null) releaseFace(reservation);
+        pendingUsernames.remove(reservation.username, reservation);
+        pendingEmails.remove(reservation.email, reservation);
+    }
+
+    /**
+     * Retry forwards the shard owner has not accepted yet and release faces whose hold
+     * after indexing has run out.
+     */
+    @Scheduled(fixedDelayString = "${face.cluster.handoff-retry-ms:1000}")
+    public void completeHandoffs() {
+        for (Reservation reservation : handoffs.values()) {
+            if (reservation.holdUntilNanos == 0) {
+                if (!clusterSearch.index(reservation.userId, reservation.features)) continue;
+                System.out.println("✅ Shard owner accepted user " + reservation.userId + " after a failed forward");
+                reservation.holdUntilNanos = System.nanoTime() + holdAfterIndexNanos;
+            }
+            if (System.nanoTime() - reservation.holdUntilNanos >= 0) {
+                handoffs.remove(reservation.userId);
+                releaseFace(reservation);
+            }
+        }
+    }
+
+    /**
+     * Closest face pending on this node, as an {@link #IN_FLIGHT_USER_ID} hit, or null.
+     * Answers the pending part of another node's registration search; must be read
+     * before the local index so a face moving from one to the other is not missed.
+     */
+    public SearchHit nearestPending(float[] vector) {
+        faceLock.lock();
+        try {
+            double best = Double.MAX_VALUE;
+            for (Reservation pending : pendingFaces) {
+                best = Math.min(best, squaredDistance(vector, pending.face));
+            }
+            return pendingFaces.isEmpty() ? null : new SearchHit(IN_FLIGHT_USER_ID, Math.sqrt(best));
+        } finally {
+            faceLock.unlock();
+        }
+    }
+
+    private void releaseFace(Reservation reservation) {
+        if (reservation.face == null) return;
+        faceLock.lock();
+        try {
+            pendingFaces.remove(reservation);
+            reservation.face = null;
+        } finally {
+            faceLock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingUsernames.size();
+    }
+
+    /**
+     * Faces of saved users still held until their shard owner has them.
+     */
+    public int getHeldFaceCount() {
+        return handoffs.size();
+    }
+
+    private static float squaredDistance(float[] a, float[] b) {
+        return PartitionedScorer.squaredDistance(a, b, 0, Math.min(a.length, b.length));
+    }
+
+    /**
+     * Handle for one in-flight registration.
+     */
+    public static class Reservation {
+        private final String username;
+        private final String email;
+        private float[] face;
+        private Long userId;
+        private List<Double> features;
+        private long holdUntilNanos;
+
+        private Reservation(String username, String email) {
+            this.username = username;
+            this.email = email;
+        }
+
+        public String getUsername() { return username; }
+        public String getEmail() { return email; }
+    }
+}
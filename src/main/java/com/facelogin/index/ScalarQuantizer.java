@@ -0,0 +1,56 @@
+package com.facelogin.index;
+
+/**
+ * Symmetric int8 quantization with one scale per vector.
+ * A vector v is stored as codes c and scale s with v ≈ s * c.
+ */
+public final class ScalarQuantizer {
+
+    private ScalarQuantizer() {}
+
+    /**
+     * Quantize {@code dim} values starting at {@code srcOffset} into {@code codes}.
+     *
+     * @return the per-vector scale
+     */
+    public static float encode(float[] src, int srcOffset, int dim, byte[] codes, int codeOffset) {
+        float maxAbs = 0f;
+        for (int i = 0; i < dim; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(src[srcOffset + i]));
+        }
+        if (maxAbs == 0f) {
+            for (int i = 0; i < dim; i++) codes[codeOffset + i] = 0;
+            return 0f;
+        }
+        float inverse = 127f / maxAbs;
+        for (int i = 0; i < dim; i++) {
+            codes[codeOffset + i] = (byte) Math.round(src[srcOffset + i] * inverse);
+        }
+        return maxAbs / 127f;
+    }
+
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int dim) {
+        int sum = 0;
+        for (int i = 0; i < dim; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Squared norm of the dequantized vector.
+     */
+    public static float squaredNorm(byte[] codes, int offset, int dim, float scale) {
+        return dot(codes, offset, codes, offset, dim) * scale * scale;
+    }
+
+    /**
+     * Approximate squared Euclidean distance using ‖a−b‖² = ‖a‖² + ‖b‖² − 2·a·b
+     * with the dot product computed in integer arithmetic.
+     */
+    public static float squaredDistance(byte[] a, int aOffset, float aScale, float aNorm,
+                                        byte[] b, int bOffset, float bScale, float bNorm, int dim) {
+        float d = aNorm + bNorm - 2f * aScale * bScale * dot(a, aOffset, b, bOffset, dim);
+        return Math.max(0f, d);
+    }
+}
@@ -0,0 +1,22 @@
+package com.facelogin.index;
+
+/**
+ * One nearest-neighbour result: a user id and its exact Euclidean distance to the query.
+ */
+public class SearchHit {
+    private final Long userId;
+    private final double distance;
+
+    public SearchHit(Long userId, double distance) {
+        this.userId = userId;
+        this.distance = distance;
+    }
+
+    public Long getUserId() { return userId; }
+    public double getDistance() { return distance; }
+
+    @Override
+    public String toString() {
+        return "SearchHit{userId=" + userId + ", distance=" + distance + "}";
+    }
+}
@@ -0,0 +1,100 @@
+package com.facelogin.index;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps user ids to shards and shards to cluster nodes.
+ *
+ * A user id hashes to one of {@code shards} shards; shard {@code s} is owned by node
+ * {@code s % nodes}. Every node lists the same {@code nodes} in the same order and
+ * knows its own position ({@code self}). With clustering disabled every user is local.
+ */
+@Component
+public class ShardRouter {
+
+    private final boolean enabled;
+    private final int shards;
+    private final List<String> nodes;
+    private final int self;
+
+    public ShardRouter(@Value("${face.cluster.enabled:false}") boolean enabled,
+                       @Value("${face.cluster.shards:16}") int shards,
+                       @Value("${face.cluster.nodes:}") String nodes,
+                       @Value("${face.cluster.self:0}") int self) {
+        this.nodes = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            if (!node.isBlank()) this.nodes.add(node.trim().replaceAll("/+$", ""));
+        }
+        this.enabled = enabled && this.nodes.size() > 1;
+        this.shards = Math.max(1, shards);
+        this.self = self;
+        if (this.enabled && (self < 0 || self >= this.nodes.size())) {
+            throw new IllegalArgumentException("face.cluster.self=" + self + " is not a position in face.cluster.nodes");
+        }
+        if (this.enabled) {
+            System.out.println("🧩 Face index sharding enabled: node " + self + " of " + this.nodes
+                    + ", " + this.shards + " shards");
+        }
+    }
+
+    /**
+     * Router for a single node that owns every shard.
+     */
+    public static ShardRouter standalone() {
+        return new ShardRouter(false, 1, "", 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int shardOf(long userId) {
+        // Mix the id so sequential IDENTITY values spread evenly over shards
+        long h = userId * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return (int) Math.floorMod(h, (long) shards);
+    }
+
+    public int ownerOf(long userId) {
+        return enabled ? shardOf(userId) % nodes.size() : self;
+    }
+
+    public boolean isLocal(long userId) {
+        return !enabled || ownerOf(userId) == self;
+    }
+
+    public String nodeUrl(int node) {
+        return nodes.get(node);
+    }
+
+    /**
+     * Positions of every node other than this one.
+     */
+    public List<Integer> remoteNodes() {
+        List<Integer> remote = new ArrayList<>();
+        if (!enabled) return remote;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != self) remote.add(i);
+        }
+        return remote;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getSelf() {
+        return self;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardRouter{enabled=" + enabled + ", shards=" + shards + ", nodes=" + Arrays.toString(nodes.toArray())
+                + ", self=" + self + "}";
+    }
+}
@@ -0,0 +1,116 @@
+package com.facelogin.index;
+
+import java.util.Arrays;
+
+/**
+ * Bounded max-heap keeping the k smallest distances seen, with a long payload
+ * (an index slot or a user id) attached to each entry.
+ */
+public final class TopK {
+
+    private final int capacity;
+    private final float[] distances;
+    private final long[] payloads;
+    private int size;
+
+    public TopK(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.distances = new float[this.capacity];
+        this.payloads = new long[this.capacity];
+    }
+
+    /**
+     * Distance an entry has to beat to be admitted.
+     */
+    public float threshold() {
+        return size < capacity ? Float.POSITIVE_INFINITY : distances[0];
+    }
+
+    public boolean offer(float distance, long payload) {
+        if (size < capacity) {
+            distances[size] = distance;
+            payloads[size] = payload;
+            siftUp(size++);
+            return true;
+        }
+        if (distance >= distances[0]) {
+            return false;
+        }
+        distances[0] = distance;
+        payloads[0] = payload;
+        siftDown(0);
+        return true;
+    }
+
+    public void merge(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.distances[i], other.payloads[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Payloads ordered by ascending distance.
+     */
+    public long[] sortedPayloads() {
+        Integer[] order = sortedOrder();
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = payloads[order[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Distances in ascending order, aligned with {@link #sortedPayloads()}.
+     */
+    public float[] sortedDistances() {
+        Integer[] order = sortedOrder();
+        float[] result = new float[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = distances[order[i]];
+        }
+        return result;
+    }
+
+    private Integer[] sortedOrder() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+        return order;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (distances[parent] >= distances[i]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int largest = left;
+            int right = left + 1;
+            if (right < size && distances[right] > distances[left]) largest = right;
+            if (distances[i] >= distances[largest]) break;
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        float d = distances[a];
+        distances[a] = distances[b];
+        distances[b] = d;
+        long p = payloads[a];
+        payloads[a] = payloads[b];
+        payloads[b] = p;
+    }
+}
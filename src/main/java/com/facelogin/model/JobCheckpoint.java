@@ -0,0 +1,41 @@
+package com.facelogin.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Durable progress marker for long-running background jobs, keyed by job name.
+ */
+@Entity
+@Table(name = "job_checkpoints")
+public class JobCheckpoint {
+
+    @Id
+    @Column(name = "job_name", length = 64)
+    private String jobName;
+
+    // Job-defined position, e.g. the last user id processed
+    @Column(nullable = false)
+    private Long position;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public JobCheckpoint() {}
+
+    public JobCheckpoint(String jobName, Long position) {
+        this.jobName = jobName;
+        this.position = position;
+        this.updatedAt = Instant.now();
+    }
+
+    public String getJobName() { return jobName; }
+    public Long getPosition() { return position; }
+    public Instant getUpdatedAt() { return updatedAt; }
+
+    public void setPosition(Long position) {
+        this.position = position;
+        this.updatedAt = Instant.now();
+    }
+}
@@ -0,0 +1,97 @@
+package com.facelogin.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * One face login attempt, over HTTP or a WebSocket stream identification. Rows are
+ * append-only and written in batches by {@code LoginEventLog}; stage timings are in
+ * microseconds. Requests turned away before any face work (SHED by admission control,
+ * REJECTED by the upload checks) are recorded too, with only the total time.
+ */
+@Entity
+@Table(name = "login_events", indexes = @Index(name = "idx_login_events_occurred_at", columnList = "occurred_at"))
+public class LoginEvent {
+
+    public enum Outcome { MATCH, NO_MATCH, NO_FACE, ERROR, SHED, REJECTED }
+
+    public enum Channel { HTTP, STREAM }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "occurred_at", nullable = false)
+    private Instant occurredAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private Outcome outcome;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 8)
+    private Channel channel;
+
+    @Column(name = "matched_user_id")
+    private Long matchedUserId;
+
+    @Column(name = "best_distance")
+    private Double bestDistance;
+
+    @Column(name = "second_distance")
+    private Double secondDistance;
+
+    @Column(name = "decode_us")
+    private Long decodeMicros;
+
+    @Column(name = "detect_us")
+    private Long detectMicros;
+
+    @Column(name = "extract_us")
+    private Long extractMicros;
+
+    @Column(name = "search_us")
+    private Long searchMicros;
+
+    @Column(name = "total_us", nullable = false)
+    private Long totalMicros;
+
+    public LoginEvent() {}
+
+    public LoginEvent(Outcome outcome, long totalMicros) {
+        this.occurredAt = Instant.now();
+        this.outcome = outcome;
+        this.channel = Channel.HTTP;
+        this.totalMicros = totalMicros;
+    }
+
+    public Long getId() { return id; }
+    public Instant getOccurredAt() { return occurredAt; }
+    public Outcome getOutcome() { return outcome; }
+    public Channel getChannel() { return channel; }
+    public Long getMatchedUserId() { return matchedUserId; }
+    public Double getBestDistance() { return bestDistance; }
+    public Double getSecondDistance() { return secondDistance; }
+    public Long getDecodeMicros() { return decodeMicros; }
+    public Long getDetectMicros() { return detectMicros; }
+    public Long getExtractMicros() { return extractMicros; }
+    public Long getSearchMicros() { return searchMicros; }
+    public Long getTotalMicros() { return totalMicros; }
+
+    public void setChannel(Channel channel) { this.channel = channel; }
+
+    public void setMatchedUserId(Long matchedUserId) { this.matchedUserId = matchedUserId; }
+
+    public void setDistances(Double bestDistance, Double secondDistance) {
+        this.bestDistance = bestDistance;
+        this.secondDistance = secondDistance;
+    }
+
+    public void setStageMicros(Long decodeMicros, Long detectMicros, Long extractMicros, Long searchMicros) {
+        this.decodeMicros = decodeMicros;
+        this.detectMicros = detectMicros;
+        this.extractMicros = extractMicros;
+        this.searchMicros = searchMicros;
+    }
+}
@@ -0,0 +1,41 @@
+package com.facelogin.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * A numeric setting changed at runtime through the admin API and shared by every node,
+ * e.g. the match thresholds or the active feature extractor version.
+ */
+@Entity
+@Table(name = "runtime_settings")
+public class RuntimeSetting {
+
+    @Id
+    @Column(name = "name", length = 64)
+    private String name;
+
+    @Column(name = "setting_value", nullable = false)
+    private Double value;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public RuntimeSetting() {}
+
+    public RuntimeSetting(String name, Double value) {
+        this.name = name;
+        this.value = value;
+        this.updatedAt = Instant.now();
+    }
+
+    public String getName() { return name; }
+    public Double getValue() { return value; }
+    public Instant getUpdatedAt() { return updatedAt; }
+
+    public void setValue(Double value) {
+        this.value = value;
+        this.updatedAt = Instant.now();
+    }
+}
@@ -2,8 +2,10 @@ package com.facelogin.model;
 
 import jakarta.persistence.*;
 
+import java.time.Instant;
+
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = @Index(name = "idx_users_updated_at", columnList = "updated_at"))
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -12,7 +14,7 @@ public class User {
     @Column(unique = true, nullable = false)
     private String username;
     
-    @Column(nullable = false)
+    @Column(unique = true, nullable = false)
     private String email;
     
     @Lob
@@ -25,6 +27,21 @@ public class User {
     
     @Column(name = "telegram_Chat_Id")
     private String telegramChatId; 
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    // Version of the feature extractor that produced faceEncoding (null = 1, pre-versioning rows)
+    @Column(name = "extractor_version")
+    private Integer extractorVersion;
+
+    // Staged re-embedding, swapped into faceEncoding at cutover
+    @Lob
+    @Column(name = "face_encoding_next", columnDefinition = "LONGTEXT")
+    private String nextFaceEncoding;
+
+    @Column(name = "next_extractor_version")
+    private Integer nextExtractorVersion;
     
     public User() {}
     
@@ -56,6 +73,20 @@ public class User {
 	public void setTelegramChatId(String telegramChatId) {
 		this.telegramChatId = telegramChatId;
 	}
+
+    public Instant getUpdatedAt() { return updatedAt; }
+
+    public int getExtractorVersion() { return extractorVersion == null ? 1 : extractorVersion; }
+    public void setExtractorVersion(Integer extractorVersion) { this.extractorVersion = extractorVersion; }
+
+    public String getNextFaceEncoding() { return nextFaceEncoding; }
+    public Integer getNextExtractorVersion() { return nextExtractorVersion; }
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        updatedAt = Instant.now();
+    }
     
     
 }
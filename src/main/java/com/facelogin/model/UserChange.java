@@ -0,0 +1,46 @@
+package com.facelogin.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CurrentTimestamp;
+import org.hibernate.annotations.SourceType;
+
+import java.time.Instant;
+
+/**
+ * One row per write to the users table. The auto-increment id is the change sequence
+ * that every node tails to keep its in-memory structures current. {@code changed_at} is
+ * stamped by the database, so rows written by different replicas share one clock.
+ */
+@Entity
+@Table(name = "user_changes", indexes = @Index(name = "idx_user_changes_changed_at", columnList = "changed_at"))
+public class UserChange {
+
+    public enum Operation { INSERT, UPDATE, DELETE }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private Operation operation;
+
+    @CurrentTimestamp(source = SourceType.DB)
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+
+    public UserChange() {}
+
+    public UserChange(Long userId, Operation operation) {
+        this.userId = userId;
+        this.operation = operation;
+    }
+
+    public Long getId() { return id; }
+    public Long getUserId() { return userId; }
+    public Operation getOperation() { return operation; }
+    public Instant getChangedAt() { return changedAt; }
+}
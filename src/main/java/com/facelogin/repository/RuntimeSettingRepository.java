@@ -0,0 +1,19 @@
+package com.facelogin.repository;
+
+import com.facelogin.model.RuntimeSetting;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface RuntimeSettingRepository extends JpaRepository<RuntimeSetting, String> {
+
+    /**
+     * Read a setting under a shared row lock (held until the surrounding transaction
+     * ends), so a writer updating that row waits for us and vice versa.
+     */
+    @Query(value = "SELECT setting_value FROM runtime_settings WHERE name = :name LOCK IN SHARE MODE", nativeQuery = true)
+    Optional<Double> findValueLockShared(String name);
+}
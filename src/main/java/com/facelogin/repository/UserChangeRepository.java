@@ -0,0 +1,33 @@
+package com.facelogin.repository;
+
+import com.facelogin.model.UserChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UserChangeRepository extends JpaRepository<UserChange, Long> {
+    List<UserChange> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+    Optional<UserChange> findTopByOrderByIdDesc();
+    Optional<UserChange> findTopByOrderByIdAsc();
+
+    /**
+     * The database clock, which stamps changed_at; compare change times against this
+     * rather than the local clock.
+     */
+    @Query(value = "SELECT CURRENT_TIMESTAMP(6)", nativeQuery = true)
+    Timestamp databaseNow();
+
+    @Transactional
+    @Modifying
+    @Query("delete from UserChange c where c.changedAt < :cutoff")
+    int deleteOlderThan(Instant cutoff);
+}
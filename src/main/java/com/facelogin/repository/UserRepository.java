@@ -1,13 +1,25 @@
 package com.facelogin.repository;
 
 import com.facelogin.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
+    List<User> findByUsernameIn(Collection<String> usernames);
+    List<User> findByEmailIn(Collection<String> emails);
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("select count(u) from User u where u.faceImagePath is not null"
+            + " and coalesce(u.extractorVersion, 1) <> :version"
+            + " and (u.nextExtractorVersion is null or u.nextExtractorVersion <> :version)")
+    long countPendingReembed(int version);
 }
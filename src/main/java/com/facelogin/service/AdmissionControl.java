@@ -0,0 +1,312 @@
+package com.facelogin.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for the CPU-bound face endpoints.
+ *
+ * At most {@code limit} face operations run at once. The limit adapts to observed latency
+ * (AIMD): it creeps up by 1/limit per fast successful completion and is cut by
+ * {@code backoff-ratio} when a request takes longer than {@code target-latency-ms} or twice
+ * the recent best latency, whichever is larger. The cut happens at most once per round
+ * trip: requests admitted before the last cut cannot cut again, so a burst of slow
+ * requests costs one step rather than one per request. Quick failures (no face, bad image)
+ * say nothing about capacity and are ignored. Requests over the limit wait in one queue per class;
+ * logins are always admitted before registrations, and registrations may only ever hold
+ * {@code registration-share} of the limit. A full queue is shed immediately (429) and a
+ * request that waits too long is shed with 503, both carrying a Retry-After estimate.
+ */
+@Service
+public class AdmissionControl {
+
+    public enum Priority { LOGIN, REGISTRATION }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+    private final double registrationShare;
+    private final Map<Priority, Integer> maxQueue = new EnumMap<>(Priority.class);
+    private final Map<Priority, Long> maxWaitNanos = new EnumMap<>(Priority.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, Deque<Waiter>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> inFlightByClass = new EnumMap<>(Priority.class);
+    private double limit;
+    private int inFlight;
+    private long admissions;
+    private long admissionsAtBackoff;
+    private double avgLatencyNanos;
+    private double minLatencyNanos = Double.MAX_VALUE;
+
+    private final Map<Priority, AtomicLong> admitted = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> shedQueueFull = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> shedTimeout = new EnumMap<>(Priority.class);
+
+    public AdmissionControl(@Value("${face.admission.initial-limit:0}") int initialLimit,
+                            @Value("${face.admission.min-limit:1}") int minLimit,
+                            @Value("${face.admission.max-limit:64}") int maxLimit,
+                            @Value("${face.admission.target-latency-ms:1500}") long targetLatencyMs,
+                            @Value("${face.admission.backoff-ratio:0.9}") double backoffRatio,
+                            @Value("${face.admission.registration-share:0.5}") double registrationShare,
+                            @Value("${face.admission.login.max-queue:64}") int loginMaxQueue,
+                            @Value("${face.admission.login.max-wait-ms:2000}") long loginMaxWaitMs,
+                            @Value("${face.admission.registration.max-queue:16}") int registrationMaxQueue,
+                            @Value("${face.admission.registration.max-wait-ms:5000}") long registrationMaxWaitMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        int initial = initialLimit > 0 ? initialLimit : Runtime.getRuntime().availableProcessors();
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initial));
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.backoffRatio = backoffRatio;
+        this.registrationShare = registrationShare;
+        maxQueue.put(Priority.LOGIN, loginMaxQueue);
+        maxQueue.put(Priority.REGISTRATION, registrationMaxQueue);
+        maxWaitNanos.put(Priority.LOGIN, TimeUnit.MILLISECONDS.toNanos(loginMaxWaitMs));
+        maxWaitNanos.put(Priority.REGISTRATION, TimeUnit.MILLISECONDS.toNanos(registrationMaxWaitMs));
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            inFlightByClass.put(priority, 0);
+            admitted.put(priority, new AtomicLong());
+            shedQueueFull.put(priority, new AtomicLong());
+            shedTimeout.put(priority, new AtomicLong());
+        }
+    }
+
+    /**
+     * Wait for a slot. The returned permit must be closed when the face work is done.
+     *
+     * @throws RejectedException when the request is shed
+     */
+    public Permit acquire(Priority priority) throws InterruptedException {
+        lock.lock();
+        try {
+            if (canRun(priority) && nothingQueuedAhead(priority)) {
+                return admit(priority);
+            }
+            Deque<Waiter> queue = queues.get(priority);
+            if (queue.size() >= maxQueue.get(priority)) {
+                shedQueueFull.get(priority).incrementAndGet();
+                throw new RejectedException(429, estimateRetryAfterSeconds(), priority + " queue full");
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            long remaining = maxWaitNanos.get(priority);
+            while (!waiter.granted) {
+                if (remaining <= 0) {
+                    queue.remove(waiter);
+                    shedTimeout.get(priority).incrementAndGet();
+                    throw new RejectedException(503, estimateRetryAfterSeconds(), priority + " queue wait timed out");
+                }
+                try {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    if (waiter.granted) release(priority, null); // hand the slot on
+                    else queue.remove(waiter);
+                    throw e;
+                }
+            }
+            return new Permit(this, priority, waiter.admission);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        lock.lock();
+        try {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("limit", Math.round(limit * 100) / 100.0);
+            metrics.put("inFlight", inFlight);
+            metrics.put("avgLatencyMs", TimeUnit.NANOSECONDS.toMillis((long) avgLatencyNanos));
+            metrics.put("minLatencyMs", minLatencyNanos == Double.MAX_VALUE ? null
+                    : TimeUnit.NANOSECONDS.toMillis((long) minLatencyNanos));
+            for (Priority priority : Priority.values()) {
+                Map<String, Object> perClass = new LinkedHashMap<>();
+                perClass.put("inFlight", inFlightByClass.get(priority));
+                perClass.put("queueDepth", queues.get(priority).size());
+                perClass.put("admitted", admitted.get(priority).get());
+                perClass.put("shedQueueFull", shedQueueFull.get(priority).get());
+                perClass.put("shedTimeout", shedTimeout.get(priority).get());
+                metrics.put(priority.name().toLowerCase(), perClass);
+            }
+            return metrics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Priority priority, Permit sample) {
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightByClass.merge(priority, -1, Integer::sum);
+            if (sample != null) adjustLimit(System.nanoTime() - sample.startNanos, sample.succeeded, sample.admission);
+            grantWaiting();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjustLimit(long latencyNanos, boolean succeeded, long admission) {
+        boolean slow = latencyNanos > Math.max(targetLatencyNanos, 2 * minLatencyNanos);
+        if (!slow && !succeeded) return;
+        avgLatencyNanos = avgLatencyNanos == 0 ? latencyNanos : avgLatencyNanos * 0.9 + latencyNanos * 0.1;
+        // Let the best-seen latency drift up slowly so it tracks the current hardware/load
+        if (succeeded) minLatencyNanos = Math.min(minLatencyNanos * 1.01, latencyNanos);
+        if (slow) {
+            // Requests admitted before the last cut ran under the old limit; their latency is no news
+            if (admission > admissionsAtBackoff) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                admissionsAtBackoff = admissions;
+            }
+        } else if (inFlight + 1 >= (int) limit) {
+            // Only grow when the limit is actually what's holding requests back
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private void grantWaiting() {
+        for (Priority priority : Priority.values()) { // LOGIN first
+            Deque<Waiter> queue = queues.get(priority);
+            while (!queue.isEmpty() && canRun(priority)) {
+                Waiter waiter = queue.pollFirst();
+                inFlight++;
+                inFlightByClass.merge(priority, 1, Integer::sum);
+                admitted.get(priority).incrementAndGet();
+                waiter.admission = ++admissions;
+                waiter.granted = true;
+                waiter.condition.signal();
+            }
+        }
+    }
+
+    private boolean canRun(Priority priority) {
+        if (inFlight >= (int) limit) return false;
+        if (priority == Priority.REGISTRATION) {
+            int share = Math.max(1, (int) Math.floor(limit * registrationShare));
+            return inFlightByClass.get(Priority.REGISTRATION) < share;
+        }
+        return true;
+    }
+
+    private boolean nothingQueuedAhead(Priority priority) {
+        if (!queues.get(Priority.LOGIN).isEmpty()) return false;
+        return priority == Priority.LOGIN || queues.get(Priority.REGISTRATION).isEmpty();
+    }
+
+    private Permit admit(Priority priority) {
+        inFlight++;
+        inFlightByClass.merge(priority, 1, Integer::sum);
+        admitted.get(priority).incrementAndGet();
+        return new Permit(this, priority, ++admissions);
+    }
+
+    /**
+     * Seconds a shed client should wait, estimated from the queued work and the current
+     * limit and latency. Also used for 503s from related resources (e.g. upload buffers).
+     */
+    public int retryAfterSeconds() {
+        lock.lock();
+        try {
+            return estimateRetryAfterSeconds();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int estimateRetryAfterSeconds() {
+        int queued = queues.get(Priority.LOGIN).size() + queues.get(Priority.REGISTRATION).size();
+        double drainNanos = (queued + 1) * Math.max(avgLatencyNanos, 1) / Math.max(1, (int) limit);
+        return (int) Math.max(1, Math.min(60, Math.ceil(drainNanos / 1e9)));
+    }
+
+    /**
+     * A running slot; closing it records the latency and admits the next waiter.
+     */
+    public static class Permit implements AutoCloseable {
+        private final AdmissionControl owner;
+        private final Priority priority;
+        private final long admission;
+        private long startNanos = System.nanoTime();
+        private boolean succeeded;
+        private boolean closed;
+
+        private Permit(AdmissionControl owner, Priority priority, long admission) {
+            this.owner = owner;
+            this.priority = priority;
+            this.admission = admission;
+        }
+
+        /**
+         * Restart the latency clock, e.g. once the upload has been read, so that a slow
+         * client is not mistaken for an overloaded server.
+         */
+        public void startWork() {
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Mark the face work as done. Without it the request counts as failed, and a failure
+         * only affects the limit if it was slow.
+         */
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            owner.release(priority, this);
+        }
+    }
+
+    /**
+     * Thrown when a request is shed; carries the HTTP status and Retry-After seconds.
+     */
+    public static class RejectedException extends RuntimeException {
+        private final int status;
+        private final int retryAfterSeconds;
+
+        public RejectedException(int status, int retryAfterSeconds, String message) {
+            super(message);
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getStatus() { return status; }
+        public int getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    private static class Waiter {
+        final Condition condition;
+        boolean granted;
+        long admission;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
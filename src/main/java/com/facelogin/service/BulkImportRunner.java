@@ -0,0 +1,43 @@
+package com.facelogin.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+/**
+ * Command-line bulk enrollment:
+ * <pre>
+ * java -jar face-login.war --spring.main.web-application-type=none --face.import.source=/path/to/dir
+ * </pre>
+ * Runs the import synchronously and exits with status 0 on success.
+ */
+@Component
+public class BulkImportRunner implements ApplicationRunner {
+
+    private final BulkImportService bulkImportService;
+    private final ApplicationContext context;
+    private final String source;
+
+    public BulkImportRunner(BulkImportService bulkImportService,
+                            ApplicationContext context,
+                            @Value("${face.import.source:}") String source) {
+        this.bulkImportService = bulkImportService;
+        this.context = context;
+        this.source = source;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (source.isBlank()) return;
+
+        BulkImportService.ImportJob job = bulkImportService.runNow(Path.of(source));
+        System.out.println("📦 " + job.summary());
+        int exitCode = "COMPLETED".equals(job.getStatus()) ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
@@ -0,0 +1,592 @@
+package com.facelogin.service;
+
+import com.facelogin.index.RegistrationGuard;
+import com.facelogin.model.User;
+import com.facelogin.repository.RuntimeSettingRepository;
+import com.facelogin.repository.UserRepository;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk enrollment from a directory (or zip) of face images plus a CSV manifest.
+ *
+ * The manifest has one row per employee: {@code username,email,image} where image is a
+ * path relative to the manifest. Fields may be quoted (RFC 4180: commas inside quotes,
+ * doubled quotes); a line without exactly three fields is reported as a failed row rather
+ * than imported with shifted columns. Rows are processed in chunks: images are decoded and
+ * embedded in parallel, each candidate is reserved through {@link RegistrationGuard}
+ * (which dedupes within the chunk, against the index and against live registrations),
+ * and the accepted rows are inserted with one JDBC batch per chunk together with their
+ * change-log rows. Users that already exist are skipped, so re-running a job on the same
+ * source resumes where it stopped.
+ *
+ * Image paths must stay inside the source directory, and server-side directories given
+ * through the admin API must lie under {@code face.import.root} (path imports are off
+ * while it is unset). Uploaded zips are unpacked, up to {@code max-zip-entries} entries and
+ * {@code max-zip-mb} uncompressed, to a temporary directory that is deleted when the job
+ * ends. The face crop saved for a row that is not imported is deleted again.
+ */
+@Service
+public class BulkImportService {
+
+    public static final String MANIFEST_NAME = "enrollment.csv";
+    private static final int MAX_RECORDED_ERRORS = 100;
+
+    private final OpenCVFaceRecognition faceRecognition;
+    private final RegistrationGuard registrationGuard;
+    private final MatchThresholds thresholds;
+    private final UserRepository userRepository;
+    private final RuntimeSettingRepository settingRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TelegramService telegramService;
+    private final String adminChatId;
+    private final int chunkSize;
+    private final Path importRoot;
+    private final long maxZipBytes;
+    private final int maxZipEntries;
+    private final ExecutorService workers;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> new Thread(r, "bulk-import"));
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    public BulkImportService(OpenCVFaceRecognition faceRecognition,
+                             RegistrationGuard registrationGuard,
+                             MatchThresholds thresholds,
+                             UserRepository userRepository,
+                             RuntimeSettingRepository settingRepository,
+                             JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             TelegramService telegramService,
+                             @Value("${telegram.admin.chat-id}") String adminChatId,
+                             @Value("${face.import.threads:0}") int threads,
+                             @Value("${face.import.chunk-size:256}") int chunkSize,
+                             @Value("${face.import.root:}") String importRoot,
+                             @Value("${face.import.max-zip-mb:2048}") long maxZipMb,
+                             @Value("${face.import.max-zip-entries:50000}") int maxZipEntries) {
+        this.faceRecognition = faceRecognition;
+        this.registrationGuard = registrationGuard;
+        this.thresholds = thresholds;
+        this.userRepository = userRepository;
+        this.settingRepository = settingRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.telegramService = telegramService;
+        this.adminChatId = adminChatId;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.importRoot = importRoot.isBlank() ? null : Path.of(importRoot).toAbsolutePath().normalize();
+        this.maxZipBytes = maxZipMb * 1024 * 1024;
+        this.maxZipEntries = maxZipEntries;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(poolSize,
+                r -> new Thread(r, "bulk-import-worker-" + workerCount.incrementAndGet()));
+    }
+
+    /**
+     * Queue an import of a server-side directory under {@code face.import.root} that
+     * contains {@value #MANIFEST_NAME} and the images.
+     */
+    public ImportJob start(Path sourceDir) throws IOException {
+        if (importRoot == null) {
+            throw new RuntimeException("Server-side imports are disabled (face.import.root is not set)");
+        }
+        Path dir = sourceDir.toAbsolutePath().normalize();
+        if (!dir.startsWith(importRoot) || !Files.isDirectory(dir)
+                || !dir.toRealPath().startsWith(importRoot.toRealPath())) {
+            throw new RuntimeException("Import path must be a directory under " + importRoot);
+        }
+        return submit(dir, null);
+    }
+
+    private ImportJob submit(Path sourceDir, Path cleanup) {
+        Path manifest = sourceDir.resolve(MANIFEST_NAME);
+        if (!Files.isRegularFile(manifest)) {
+            throw new RuntimeException("Manifest " + MANIFEST_NAME + " not found in " + sourceDir);
+        }
+        ImportJob job = new ImportJob(sourceDir.toString());
+        jobs.put(job.getId(), job);
+        coordinator.submit(() -> {
+            try {
+                run(job, sourceDir);
+            } finally {
+                if (cleanup != null) deleteRecursively(cleanup);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Unpack an uploaded zip into a temporary directory and import it.
+     */
+    public ImportJob startFromZip(InputStream zip) throws IOException {
+        Path dir = Files.createTempDirectory("face_import");
+        try {
+            unzip(zip, dir, maxZipBytes, maxZipEntries);
+            // Accept archives that wrap everything in one top-level folder
+            Path sourceDir = dir;
+            if (!Files.exists(dir.resolve(MANIFEST_NAME))) {
+                try (var children = Files.list(dir)) {
+                    List<Path> folders = children.filter(Files::isDirectory).collect(Collectors.toList());
+                    if (folders.size() == 1) sourceDir = folders.get(0);
+                }
+            }
+            return submit(sourceDir, dir);
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(dir);
+            throw e;
+        }
+    }
+
+    /**
+     * Extract a zip into {@code dir}. Sizes declared in the archive are not trusted: the
+     * bytes actually written are counted and extraction stops once they pass the limit.
+     */
+    static void unzip(InputStream zip, Path dir, long maxBytes, int maxEntries) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long written = 0;
+        int entries = 0;
+        try (ZipInputStream in = new ZipInputStream(zip)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    throw new RuntimeException("Archive has more than " + maxEntries + " entries");
+                }
+                Path target = dir.resolve(entry.getName()).normalize();
+                if (!target.startsWith(dir)) {
+                    throw new RuntimeException("Illegal path in archive: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        written += n;
+                        if (written > maxBytes) {
+                            throw new RuntimeException("Archive expands to more than " + maxBytes / (1024 * 1024) + " MB");
+                        }
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteCrop(OpenCVFaceRecognition.FaceDetectionResult result) {
+        if (result.getFaceImagePath() == null) return;
+        try {
+            Files.deleteIfExists(Path.of(result.getFaceImagePath()));
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not delete " + result.getFaceImagePath() + ": " + e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    System.err.println("⚠️ Could not delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not clean up " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run an import on the calling thread (used by the command-line runner, so not
+     * restricted to {@code face.import.root}).
+     */
+    public ImportJob runNow(Path sourceDir) {
+        ImportJob job = new ImportJob(sourceDir.toString());
+        jobs.put(job.getId(), job);
+        run(job, sourceDir);
+        return job;
+    }
+
+    public ImportJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public List<ImportJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void run(ImportJob job, Path sourceDir) {
+        job.status = "RUNNING";
+        System.out.println("\n📦 ===== BULK IMPORT " + job.getId() + " START: " + sourceDir + " =====");
+        try {
+            Path dir = sourceDir.toAbsolutePath().normalize();
+            List<ManifestRow> rows = readManifest(job, dir.resolve(MANIFEST_NAME));
+            for (int from = 0; from < rows.size(); from += chunkSize) {
+                processChunk(job, dir, rows.subList(from, Math.min(rows.size(), from + chunkSize)));
+                System.out.println("📦 Import " + job.getId() + ": " + job.processed + "/" + job.total);
+            }
+            job.status = "COMPLETED";
+        } catch (Exception e) {
+            job.status = "FAILED";
+            job.recordError("job", e.getMessage());
+            System.err.println("❌ Bulk import " + job.getId() + " failed: " + e.getMessage());
+        } finally {
+            job.finishedAt = Instant.now();
+        }
+        System.out.println("📦 ===== BULK IMPORT END: " + job.summary() + " =====\n");
+
+        // One summary instead of a message per registered user
+        telegramService.sendMessage(adminChatId, "📦 Bulk enrollment " + job.status.toLowerCase() + ": " + job.summary());
+    }
+
+    private void processChunk(ImportJob job, Path sourceDir, List<ManifestRow> chunk) throws Exception {
+        // Resume: rows already in the database were imported by an earlier run
+        Set<String> existingUsernames = userRepository.findByUsernameIn(
+                chunk.stream().map(r -> r.username).collect(Collectors.toList())).stream()
+                .map(User::getUsername).collect(Collectors.toSet());
+        Set<String> existingEmails = userRepository.findByEmailIn(
+                chunk.stream().map(r -> r.email).collect(Collectors.toList())).stream()
+                .map(User::getEmail).collect(Collectors.toSet());
+
+        List<ManifestRow> pending = new ArrayList<>();
+        List<Future<OpenCVFaceRecognition.FaceDetectionResult>> extractions = new ArrayList<>();
+        for (ManifestRow row : chunk) {
+            if (existingUsernames.contains(row.username)) {
+                job.skipped.incrementAndGet();
+                job.processed++;
+                continue;
+            }
+            if (existingEmails.contains(row.email)) {
+                job.duplicates.incrementAndGet();
+                job.recordError(row.username, "Email already exists");
+                job.processed++;
+                continue;
+            }
+            Path image = sourceDir.resolve(row.image).normalize();
+            if (!image.startsWith(sourceDir)) {
+                job.failed.incrementAndGet();
+                job.recordError(row.username, "Image path outside the import directory: " + row.image);
+                job.processed++;
+                continue;
+            }
+            pending.add(row);
+            extractions.add(workers.submit(() -> faceRecognition.detectAndExtractFace(Files.readAllBytes(image))));
+        }
+
+        List<Candidate> accepted = new ArrayList<>();
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                ManifestRow row = pending.get(i);
+                OpenCVFaceRecognition.FaceDetectionResult result;
+                try {
+                    result = extractions.get(i).get();
+                } catch (Exception e) {
+                    job.failed.incrementAndGet();
+                    job.recordError(row.username, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                    job.processed++;
+                    continue;
+                }
+
+                RegistrationGuard.Reservation reservation;
+                try {
+                    reservation = registrationGuard.reserveIdentity(row.username, row.email);
+                } catch (RuntimeException e) {
+                    deleteCrop(result);
+                    job.duplicates.incrementAndGet();
+                    job.recordError(row.username, e.getMessage());
+                    job.processed++;
+                    continue;
+                }
+                Candidate candidate = new Candidate(row, result, reservation);
+                try {
+                    registrationGuard.reserveFace(reservation, result.getFeatures(), thresholds.getRegistration());
+                } catch (RuntimeException e) {
+                    registrationGuard.release(reservation);
+                    deleteCrop(result);
+                    job.duplicates.incrementAndGet();
+                    job.recordError(row.username, e.getMessage());
+                    job.processed++;
+                    continue;
+                }
+                accepted.add(candidate);
+            }
+
+            insert(job, accepted);
+        } finally {
+            for (Candidate candidate : accepted) {
+                registrationGuard.release(candidate.reservation);
+                // Rows that never made it into the database don't keep their crop
+                if (!candidate.committed) deleteCrop(candidate.result);
+            }
+        }
+    }
+
+    private void insert(ImportJob job, List<Candidate> candidates) {
+        if (candidates.isEmpty()) return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(candidates));
+            candidates.forEach(candidate -> candidate.committed = true);
+        } catch (DataIntegrityViolationException e) {
+            // Another node inserted one of these rows meanwhile; fall back to row-by-row
+            for (Candidate candidate : candidates) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> insertBatch(List.of(candidate)));
+                    candidate.committed = true;
+                } catch (DataIntegrityViolationException rowError) {
+                    candidate.userId = null;
+                    job.duplicates.incrementAndGet();
+                    job.recordError(candidate.row.username, "Username or email already exists");
+                }
+            }
+        }
+        for (Candidate candidate : candidates) {
+            job.processed++;
+            if (!candidate.committed) continue;
+            registrationGuard.index(candidate.reservation, candidate.userId, candidate.result.getFeatures());
+            job.imported.incrementAndGet();
+        }
+    }
+
+    private void insertBatch(List<Candidate> candidates) {
+        // Same guard as a single registration (UserChangeLog#saveRegistration): hold the
+        // active extractor version steady until the batch commits
+        settingRepository.findValueLockShared(ReembedService.ACTIVE_VERSION_KEY).ifPresent(active -> {
+            for (Candidate candidate : candidates) {
+                if (candidate.result.getExtractorVersion() != active.intValue()) {
+                    throw new RuntimeException("Face extractor was upgraded during the import; run it again to resume");
+                }
+            }
+        });
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement users = connection.prepareStatement(
+                    "INSERT INTO users (username, email, face_encoding, face_image_path, extractor_version, updated_at)"
+                            + " VALUES (?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                for (Candidate candidate : candidates) {
+                    users.setString(1, candidate.row.username);
+                    users.setString(2, candidate.row.email);
+                    users.setString(3, FeatureEncoding.format(candidate.result.getFeatures()));
+                    users.setString(4, candidate.result.getFaceImagePath());
+                    users.setInt(5, candidate.result.getExtractorVersion());
+                    users.setTimestamp(6, now);
+                    users.addBatch();
+                }
+                users.executeBatch();
+                try (ResultSet keys = users.getGeneratedKeys()) {
+                    for (Candidate candidate : candidates) {
+                        if (!keys.next()) throw new IllegalStateException("Missing generated key");
+                        candidate.userId = keys.getLong(1);
+                    }
+                }
+            }
+            try (PreparedStatement changes = connection.prepareStatement(
+                    "INSERT INTO user_changes (user_id, operation, changed_at) VALUES (?, 'INSERT', CURRENT_TIMESTAMP(6))")) {
+                for (Candidate candidate : candidates) {
+                    changes.setLong(1, candidate.userId);
+                    changes.addBatch();
+                }
+                changes.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    private List<ManifestRow> readManifest(ImportJob job, Path manifest) throws IOException {
+        List<ManifestRow> rows = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int rejected = 0;
+        boolean first = true;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isBlank()) continue;
+            List<String> fields = parseCsvLine(line);
+            if (fields == null || fields.size() != 3) {
+                // Importing a row with shifted columns is worse than reporting it
+                first = false;
+                rejected++;
+                job.failed.incrementAndGet();
+                job.recordError("line " + lineNumber, fields == null
+                        ? "Unterminated quote"
+                        : "Expected 3 fields (username,email,image) but found " + fields.size());
+                continue;
+            }
+            String username = fields.get(0);
+            if (first && username.equalsIgnoreCase("username")) { // header
+                first = false;
+                continue;
+            }
+            first = false;
+            if (!seen.add(username)) {
+                // Same username listed twice: the first row wins, the rest are reported
+                rejected++;
+                job.duplicates.incrementAndGet();
+                job.recordError(username + " (repeated)", "Listed more than once in the manifest");
+                continue;
+            }
+            rows.add(new ManifestRow(username, fields.get(1), fields.get(2)));
+        }
+        job.total = rows.size() + rejected;
+        job.processed = rejected;
+        return rows;
+    }
+
+    /**
+     * Split one CSV line (RFC 4180): fields may be wrapped in double quotes, which protect
+     * commas, and a doubled quote inside a quoted field stands for one quote. Unquoted
+     * fields are trimmed. Returns null when a quoted field is not closed.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.toString().isBlank()) {
+                quoted = true;
+                wasQuoted = true;
+                field.setLength(0);
+            } else if (c == ',') {
+                fields.add(wasQuoted ? field.toString() : field.toString().trim());
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (!wasQuoted || !Character.isWhitespace(c)) {
+                field.append(c);
+            }
+        }
+        if (quoted) return null;
+        fields.add(wasQuoted ? field.toString() : field.toString().trim());
+        return fields;
+    }
+
+    private static class ManifestRow {
+        final String username;
+        final String email;
+        final String image;
+
+        ManifestRow(String username, String email, String image) {
+            this.username = username;
+            this.email = email;
+            this.image = image;
+        }
+    }
+
+    private static class Candidate {
+        final ManifestRow row;
+        final OpenCVFaceRecognition.FaceDetectionResult result;
+        final RegistrationGuard.Reservation reservation;
+        Long userId;
+        boolean committed;
+
+        Candidate(ManifestRow row, OpenCVFaceRecognition.FaceDetectionResult result,
+                  RegistrationGuard.Reservation reservation) {
+            this.row = row;
+            this.result = result;
+            this.reservation = reservation;
+        }
+    }
+
+    /**
+     * Progress of one import, polled through the admin API.
+     */
+    public static class ImportJob {
+        private final String id = UUID.randomUUID().toString();
+        private final String source;
+        private final Instant startedAt = Instant.now();
+        private volatile Instant finishedAt;
+        private volatile String status = "QUEUED";
+        private volatile int total;
+        private volatile int processed;
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Map<String, String> errors = new ConcurrentHashMap<>();
+
+        ImportJob(String source) {
+            this.source = source;
+        }
+
+        void recordError(String key, String message) {
+            if (errors.size() < MAX_RECORDED_ERRORS) errors.put(key, String.valueOf(message));
+        }
+
+        public String getId() { return id; }
+        public String getStatus() { return status; }
+
+        public String summary() {
+            return imported.get() + " imported, " + skipped.get() + " already present, " + duplicates.get()
+                    + " duplicates, " + failed.get() + " failed of " + total;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("source", source);
+            map.put("status", status);
+            map.put("total", total);
+            map.put("processed", processed);
+            map.put("imported", imported.get());
+            map.put("skipped", skipped.get());
+            map.put("duplicates", duplicates.get());
+            map.put("failed", failed.get());
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt == null ? null : finishedAt.toString());
+            map.put("errors", errors);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.facelogin.service;
+
+import com.facelogin.index.FaceIndex;
+import com.facelogin.model.User;
+import com.facelogin.model.UserChange;
+import com.facelogin.repository.UserChangeRepository;
+import com.facelogin.repository.UserRepository;
+import com.facelogin.util.FeatureEncoding;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps this node's {@link FaceIndex} in step with writes made by any replica.
+ *
+ * Every write to users also appends a row to user_changes (see {@link UserChangeLog}).
+ * This service tails that table by id — an indexed range query — and re-reads only the
+ * touched users, applying them to the index in small batches. A full reload is done on
+ * startup, when the log has been pruned past our position, or on request.
+ *
+ * An id gap older than {@code gap-grace-ms} is stepped over, but a slow transaction can
+ * still commit it later. The skipped ids are therefore looked up again on every poll for
+ * {@code gap-recheck-ms} and applied if they appear.
+ */
+@Service
+public class IndexSyncService {
+
+    // More skipped ids than this is an auto-increment jump (e.g. after a restart), not writes in flight
+    private static final int MAX_TRACKED_GAP = 10_000;
+
+    private final FaceIndex faceIndex;
+    private final UserRepository userRepository;
+    private final UserChangeRepository userChangeRepository;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxBatchesPerPoll;
+    private final Duration retention;
+    private final Duration gapGrace;
+    private final Duration gapRecheck;
+    // Skipped change id -> database time it was skipped at; only touched under the lock
+    private final TreeMap<Long, Instant> skippedIds = new TreeMap<>();
+
+    private volatile long appliedChangeId = -1; // -1 = not initialised, full resync pending
+    private volatile long headChangeId = 0;
+    private volatile long lagMillis = 0;
+    private volatile long lastPollMillis = 0;
+    private volatile Instant lastPollAt;
+    private final AtomicLong changesApplied = new AtomicLong();
+    private final AtomicLong fullResyncs = new AtomicLong();
+    private final AtomicLong pollErrors = new AtomicLong();
+    private final AtomicLong lateChanges = new AtomicLong();
+
+    public IndexSyncService(FaceIndex faceIndex,
+                            UserRepository userRepository,
+                            UserChangeRepository userChangeRepository,
+                            @Value("${face.sync.enabled:true}") boolean enabled,
+                            @Value("${face.sync.batch-size:200}") int batchSize,
+                            @Value("${face.sync.max-batches-per-poll:10}") int maxBatchesPerPoll,
+                            @Value("${face.sync.retention-hours:168}") long retentionHours,
+                            @Value("${face.sync.gap-grace-ms:2000}") long gapGraceMs,
+                            @Value("${face.sync.gap-recheck-ms:600000}") long gapRecheckMs) {
+        this.faceIndex = faceIndex;
+        this.userRepository = userRepository;
+        this.userChangeRepository = userChangeRepository;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerPoll = Math.max(1, maxBatchesPerPoll);
+        this.retention = Duration.ofHours(retentionHours);
+        this.gapGrace = Duration.ofMillis(gapGraceMs);
+        this.gapRecheck = Duration.ofMillis(gapRecheckMs);
+    }
+
+    @Scheduled(fixedDelayString = "${face.sync.poll-ms:500}")
+    public synchronized void poll() {
+        if (!enabled) return;
+        long start = System.currentTimeMillis();
+        try {
+            if (appliedChangeId < 0 || isBehindPrunedLog()) {
+                fullResync();
+            } else {
+                recheckSkipped();
+                for (int batch = 0; batch < maxBatchesPerPoll; batch++) {
+                    if (applyNextBatch() < batchSize) break;
+                }
+            }
+            updateLag();
+        } catch (Exception e) {
+            pollErrors.incrementAndGet();
+            System.err.println("❌ Face index sync failed: " + e.getMessage());
+        } finally {
+            lastPollMillis = System.currentTimeMillis() - start;
+            lastPollAt = Instant.now();
+        }
+    }
+
+    /**
+     * Reload the whole index from the users table.
+     */
+    public synchronized void fullResync() {
+        // Read the head first: anything written during the reload is replayed afterwards
+        long head = userChangeRepository.findTopByOrderByIdDesc().map(UserChange::getId).orElse(0L);
+        faceIndex.load(userRepository.findAll());
+        appliedChangeId = head;
+        fullResyncs.incrementAndGet();
+        System.out.println("🔄 Face index full resync at change " + head);
+    }
+
+    @Scheduled(fixedDelayString = "${face.sync.prune-ms:3600000}")
+    public void pruneChangeLog() {
+        if (!enabled) return;
+        try {
+            Instant cutoff = userChangeRepository.databaseNow().toInstant().minus(retention);
+            int removed = userChangeRepository.deleteOlderThan(cutoff);
+            if (removed > 0) System.out.println("🧹 Pruned " + removed + " user changes");
+        } catch (Exception e) {
+            System.err.println("❌ Change log prune failed: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("appliedChangeId", appliedChangeId);
+        metrics.put("headChangeId", headChangeId);
+        metrics.put("lagChanges", Math.max(0, headChangeId - appliedChangeId));
+        metrics.put("lagMillis", lagMillis);
+        metrics.put("lastPollMillis", lastPollMillis);
+        metrics.put("lastPollAt", lastPollAt == null ? null : lastPollAt.toString());
+        metrics.put("changesApplied", changesApplied.get());
+        metrics.put("fullResyncs", fullResyncs.get());
+        metrics.put("pollErrors", pollErrors.get());
+        metrics.put("skippedChangeIds", skippedIds.size());
+        metrics.put("lateChanges", lateChanges.get());
+        metrics.put("indexSize", faceIndex.size());
+        return metrics;
+    }
+
+    private int applyNextBatch() {
+        List<UserChange> changes = userChangeRepository.findByIdGreaterThanOrderByIdAsc(
+                appliedChangeId, PageRequest.of(0, batchSize));
+        if (changes.isEmpty()) return 0;
+
+        // Ids are allocated at insert but become visible at commit, so a fresh gap may be a
+        // transaction still in flight: stop there until it fills or is old enough to be a
+        // rollback. Both sides of the age check come from the database clock.
+        Instant now = null;
+        long expected = appliedChangeId + 1;
+        List<UserChange> ready = new ArrayList<>();
+        List<Long> gap = new ArrayList<>();
+        for (UserChange change : changes) {
+            if (change.getId() != expected) {
+                if (now == null) now = userChangeRepository.databaseNow().toInstant();
+                if (change.getChangedAt().isAfter(now.minus(gapGrace))) break;
+                if (change.getId() - expected <= MAX_TRACKED_GAP) {
+                    for (long id = expected; id < change.getId(); id++) gap.add(id);
+                }
+            }
+            ready.add(change);
+            expected = change.getId() + 1;
+        }
+        if (ready.isEmpty()) return 0;
+
+        applyUsers(ready);
+        for (Long id : gap) skippedIds.put(id, now);
+        appliedChangeId = ready.get(ready.size() - 1).getId();
+        changesApplied.addAndGet(ready.size());
+        return ready.size();
+    }
+
+    /**
+     * Look the skipped ids up again: any that now exist belong to transactions that
+     * committed after the grace period and are applied late.
+     */
+    private void recheckSkipped() {
+        if (skippedIds.isEmpty()) return;
+        Instant cutoff = userChangeRepository.databaseNow().toInstant().minus(gapRecheck);
+        skippedIds.values().removeIf(skippedAt -> skippedAt.isBefore(cutoff)); // rolled back after all
+        if (skippedIds.isEmpty()) return;
+
+        List<UserChange> late = userChangeRepository.findAllById(skippedIds.keySet());
+        if (late.isEmpty()) return;
+        applyUsers(late);
+        for (UserChange change : late) skippedIds.remove(change.getId());
+        lateChanges.addAndGet(late.size());
+        changesApplied.addAndGet(late.size());
+        System.out.println("🔄 Applied " + late.size() + " user changes that committed after their gap was skipped");
+    }
+
+    private void applyUsers(Collection<UserChange> changes) {
+        // Collapse repeated changes to the same user and fetch them in one query; users
+        // whose shard lives on another node are that node's business
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (UserChange change : changes) {
+            if (faceIndex.isLocal(change.getUserId())) userIds.add(change.getUserId());
+        }
+        Map<Long, User> users = userRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        for (Long userId : userIds) {
+            User user = users.get(userId);
+            if (user == null || !faceIndex.isIndexable(user)) {
+                faceIndex.remove(userId); // deleted, face cleared or from another extractor version
+            } else {
+                faceIndex.put(userId, FeatureEncoding.parse(user.getFaceEncoding()));
+            }
+        }
+    }
+
+    private boolean isBehindPrunedLog() {
+        // If the oldest retained change is past our position, rows we never saw were pruned.
+        // An auto-increment gap from a rolled-back insert can also trip this; a resync is harmless.
+        return userChangeRepository.findTopByOrderByIdAsc()
+                .map(oldest -> oldest.getId() > appliedChangeId + 1)
+                .orElse(false);
+    }
+
+    private void updateLag() {
+        headChangeId = userChangeRepository.findTopByOrderByIdDesc().map(UserChange::getId).orElse(0L);
+        if (headChangeId <= appliedChangeId) {
+            lagMillis = 0;
+            return;
+        }
+        lagMillis = userChangeRepository.findByIdGreaterThanOrderByIdAsc(appliedChangeId, PageRequest.of(0, 1)).stream()
+                .findFirst()
+                .map(c -> Duration.between(c.getChangedAt(), userChangeRepository.databaseNow().toInstant()).toMillis())
+                .orElse(0L);
+    }
+}
@@ -0,0 +1,191 @@
+package com.facelogin.service;
+
+import com.facelogin.model.LoginEvent;
+import com.facelogin.util.RingBuffer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of face login attempts.
+ *
+ * {@link #record} only puts the event in a lock-free {@link RingBuffer}; if the buffer is
+ * full the event is dropped and counted, so logging never slows down a login. A scheduled
+ * writer drains the buffer into login_events with JDBC batch inserts. A batch that fails
+ * to insert is dropped too (and counted) rather than retried into a growing backlog.
+ */
+@Service
+public class LoginEventLog {
+
+    static final String[] STAGES = {"decode", "detect", "extract", "search", "total"};
+
+    private static final String INSERT_SQL = "INSERT INTO login_events (occurred_at, outcome, channel, matched_user_id,"
+            + " best_distance, second_distance, decode_us, detect_us, extract_us, search_us, total_us)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RingBuffer<LoginEvent> buffer;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxStatsSamples;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private volatile String lastError;
+
+    public LoginEventLog(JdbcTemplate jdbcTemplate,
+                         @Value("${face.events.enabled:true}") boolean enabled,
+                         @Value("${face.events.buffer-size:8192}") int bufferSize,
+                         @Value("${face.events.batch-size:500}") int batchSize,
+                         @Value("${face.events.max-stats-samples:100000}") int maxStatsSamples) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxStatsSamples = Math.max(1, maxStatsSamples);
+    }
+
+    /**
+     * Queue an event for writing. Never blocks.
+     */
+    public void record(LoginEvent event) {
+        if (!enabled) return;
+        recorded.incrementAndGet();
+        if (!buffer.offer(event)) dropped.incrementAndGet();
+    }
+
+    /**
+     * Record an attempt that ended without a face comparison, timed from {@code startNanos}.
+     */
+    public void record(LoginEvent.Outcome outcome, LoginEvent.Channel channel, long startNanos) {
+        LoginEvent event = new LoginEvent(outcome, (System.nanoTime() - startNanos) / 1000);
+        event.setChannel(channel);
+        record(event);
+    }
+
+    @Scheduled(fixedDelayString = "${face.events.flush-ms:1000}")
+    public synchronized void flush() {
+        long start = System.currentTimeMillis();
+        List<LoginEvent> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            try {
+                jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, event) -> {
+                    ps.setTimestamp(1, Timestamp.from(event.getOccurredAt()));
+                    ps.setString(2, event.getOutcome().name());
+                    ps.setString(3, event.getChannel().name());
+                    ps.setObject(4, event.getMatchedUserId(), Types.BIGINT);
+                    ps.setObject(5, event.getBestDistance(), Types.DOUBLE);
+                    ps.setObject(6, event.getSecondDistance(), Types.DOUBLE);
+                    ps.setObject(7, event.getDecodeMicros(), Types.BIGINT);
+                    ps.setObject(8, event.getDetectMicros(), Types.BIGINT);
+                    ps.setObject(9, event.getExtractMicros(), Types.BIGINT);
+                    ps.setObject(10, event.getSearchMicros(), Types.BIGINT);
+                    ps.setLong(11, event.getTotalMicros());
+                });
+                written.addAndGet(batch.size());
+            } catch (Exception e) {
+                writeFailures.addAndGet(batch.size());
+                lastError = e.getMessage();
+                System.err.println("❌ Dropped " + batch.size() + " login events: " + e.getMessage());
+            }
+            batch.clear();
+        }
+        lastFlushMillis = System.currentTimeMillis() - start;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("recorded", recorded.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("written", written.get());
+        metrics.put("writeFailures", writeFailures.get());
+        metrics.put("buffered", buffer.size());
+        metrics.put("bufferCapacity", buffer.capacity());
+        metrics.put("lastFlushMillis", lastFlushMillis);
+        metrics.put("lastError", lastError);
+        return metrics;
+    }
+
+    /**
+     * p50/p99 per stage (ms) over the most recent attempts in the window, plus per-hour
+     * attempt counts and success rates.
+     */
+    public Map<String, Object> getStats(int hours) {
+        Timestamp since = Timestamp.from(Instant.now().minus(Duration.ofHours(Math.max(1, hours))));
+
+        List<long[]> samples = jdbcTemplate.query("SELECT decode_us, detect_us, extract_us, search_us, total_us"
+                        + " FROM login_events WHERE occurred_at >= ? ORDER BY id DESC LIMIT ?",
+                (rs, row) -> {
+                    long[] values = new long[STAGES.length];
+                    for (int i = 0; i < STAGES.length; i++) {
+                        values[i] = rs.getLong(i + 1);
+                        if (rs.wasNull()) values[i] = -1;
+                    }
+                    return values;
+                }, since, maxStatsSamples);
+
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            stages.put(STAGES[stage], percentiles(samples, stage));
+        }
+
+        List<Map<String, Object>> hourly = jdbcTemplate.query("SELECT FLOOR(UNIX_TIMESTAMP(occurred_at) / 3600) AS hour,"
+                        + " COUNT(*) AS attempts, SUM(outcome = 'MATCH') AS matches,"
+                        + " SUM(outcome IN ('SHED', 'REJECTED')) AS turned_away"
+                        + " FROM login_events WHERE occurred_at >= ? GROUP BY hour ORDER BY hour",
+                (rs, row) -> {
+                    Map<String, Object> bucket = new LinkedHashMap<>();
+                    long attempts = rs.getLong("attempts");
+                    long matches = rs.getLong("matches");
+                    bucket.put("hour", Instant.ofEpochSecond(rs.getLong("hour") * 3600).toString());
+                    bucket.put("attempts", attempts);
+                    bucket.put("matches", matches);
+                    bucket.put("turnedAway", rs.getLong("turned_away"));
+                    bucket.put("successRate", attempts == 0 ? 0.0 : Math.round(matches * 10000.0 / attempts) / 10000.0);
+                    return bucket;
+                }, since);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hours", Math.max(1, hours));
+        stats.put("samples", samples.size());
+        stats.put("stagesMs", stages);
+        stats.put("hourly", hourly);
+        return stats;
+    }
+
+    static Map<String, Object> percentiles(List<long[]> samples, int stage) {
+        long[] values = samples.stream().mapToLong(s -> s[stage]).filter(v -> v >= 0).toArray();
+        Arrays.sort(values);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", values.length);
+        result.put("p50", values.length == 0 ? null : values[rank(values.length, 0.50)] / 1000.0);
+        result.put("p99", values.length == 0 ? null : values[rank(values.length, 0.99)] / 1000.0);
+        return result;
+    }
+
+    private static int rank(int count, double quantile) {
+        return Math.min(count - 1, (int) Math.ceil(quantile * count) - 1);
+    }
+}
@@ -0,0 +1,106 @@
+package com.facelogin.service;
+
+import com.facelogin.model.RuntimeSetting;
+import com.facelogin.repository.RuntimeSettingRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Face distance thresholds, reloadable at runtime.
+ *
+ * Defaults come from {@code face.thresholds.*}. An update through the admin API is stored
+ * in runtime_settings and every node picks it up on its next poll. Thresholds must satisfy
+ * 0 < registration <= login <= {@value #MAX_THRESHOLD}: the duplicate check has to be at
+ * least as strict as a login match, and unit-length feature vectors are never further
+ * apart than 2.
+ */
+@Service
+public class MatchThresholds {
+
+    static final String LOGIN_KEY = "threshold-login";
+    static final String REGISTRATION_KEY = "threshold-registration";
+    static final double MAX_THRESHOLD = 2.0;
+
+    private final RuntimeSettingRepository settingRepository;
+    private volatile double login;          // accept a login below this distance
+    private volatile double registration;   // reject a registration as a duplicate below this distance
+
+    public MatchThresholds(RuntimeSettingRepository settingRepository,
+                           @Value("${face.thresholds.login:0.5}") double login,
+                           @Value("${face.thresholds.registration:0.3}") double registration) {
+        validate(login, registration);
+        this.settingRepository = settingRepository;
+        this.login = login;
+        this.registration = registration;
+    }
+
+    public double getLogin() {
+        return login;
+    }
+
+    public double getRegistration() {
+        return registration;
+    }
+
+    /**
+     * Change either threshold cluster-wide; a null leaves that threshold as it is.
+     */
+    public synchronized Map<String, Object> update(Double newLogin, Double newRegistration) {
+        double nextLogin = newLogin != null ? newLogin : login;
+        double nextRegistration = newRegistration != null ? newRegistration : registration;
+        validate(nextLogin, nextRegistration);
+        settingRepository.saveAll(List.of(setting(LOGIN_KEY, nextLogin), setting(REGISTRATION_KEY, nextRegistration)));
+        login = nextLogin;
+        registration = nextRegistration;
+        System.out.println("🎚️ Thresholds set: login " + login + ", registration " + registration);
+        return toMap();
+    }
+
+    /**
+     * Pick up an update made on another node.
+     */
+    @Scheduled(fixedDelayString = "${face.thresholds.poll-ms:5000}")
+    public synchronized void refresh() {
+        try {
+            double storedLogin = stored(LOGIN_KEY).orElse(login);
+            double storedRegistration = stored(REGISTRATION_KEY).orElse(registration);
+            if (storedLogin == login && storedRegistration == registration) return;
+            validate(storedLogin, storedRegistration);
+            login = storedLogin;
+            registration = storedRegistration;
+            System.out.println("🎚️ Thresholds reloaded: login " + login + ", registration " + registration);
+        } catch (Exception e) {
+            System.err.println("❌ Could not read thresholds: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("login", login);
+        map.put("registration", registration);
+        return map;
+    }
+
+    static void validate(double login, double registration) {
+        if (!(registration > 0) || !(registration <= login) || !(login <= MAX_THRESHOLD)) {
+            throw new RuntimeException("Thresholds must satisfy 0 < registration <= login <= " + MAX_THRESHOLD
+                    + " (got login " + login + ", registration " + registration + ")");
+        }
+    }
+
+    private Optional<Double> stored(String key) {
+        return settingRepository.findById(key).map(RuntimeSetting::getValue);
+    }
+
+    private RuntimeSetting setting(String key, double value) {
+        RuntimeSetting setting = settingRepository.findById(key).orElse(new RuntimeSetting(key, value));
+        setting.setValue(value);
+        return setting;
+    }
+}
@@ -0,0 +1,271 @@
+package com.facelogin.service;
+
+import com.facelogin.model.JobCheckpoint;
+import com.facelogin.model.User;
+import com.facelogin.repository.JobCheckpointRepository;
+import com.facelogin.repository.RuntimeSettingRepository;
+import com.facelogin.repository.UserRepository;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-embeds every stored face with a new feature extractor version.
+ *
+ * Each user's saved face crop is re-read and re-extracted on a small pool of low-priority
+ * threads, paced to {@code max-per-second}. New vectors are written to the staging column
+ * face_encoding_next in batches, together with a checkpoint of the last user id, so a
+ * stopped job resumes where it left off. Logins keep matching the active face_encoding
+ * until {@link #cutover} swaps the staged vectors in and switches the active version,
+ * which is kept in runtime_settings so every node follows it.
+ */
+@Service
+public class ReembedService {
+
+    static final String ACTIVE_VERSION_KEY = "extractor-active-version";
+
+    private final OpenCVFaceRecognition faceRecognition;
+    private final UserRepository userRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final RuntimeSettingRepository settingRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final IndexSyncService indexSyncService;
+    private final int batchSize;
+    private final double maxPerSecond;
+    private final ExecutorService workers;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> new Thread(r, "reembed"));
+
+    private volatile boolean running = false;
+    private volatile boolean stopRequested = false;
+    private volatile int targetVersion = 0;
+    private final AtomicLong reembedded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long position = 0;
+    private volatile String lastError;
+
+    public ReembedService(OpenCVFaceRecognition faceRecognition,
+                          UserRepository userRepository,
+                          JobCheckpointRepository checkpointRepository,
+                          RuntimeSettingRepository settingRepository,
+                          JdbcTemplate jdbcTemplate,
+                          TransactionTemplate transactionTemplate,
+                          IndexSyncService indexSyncService,
+                          @Value("${face.reembed.threads:2}") int threads,
+                          @Value("${face.reembed.batch-size:100}") int batchSize,
+                          @Value("${face.reembed.max-per-second:20}") double maxPerSecond) {
+        this.faceRecognition = faceRecognition;
+        this.userRepository = userRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.settingRepository = settingRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.indexSyncService = indexSyncService;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPerSecond = maxPerSecond;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "reembed-worker-" + workerCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY); // live logins win the CPU
+            return thread;
+        });
+    }
+
+    /**
+     * Start (or resume) re-embedding all users with the given extractor version.
+     */
+    public synchronized Map<String, Object> start(int version) {
+        if (running) throw new RuntimeException("Re-embedding to version " + targetVersion + " is already running");
+        if (version < 1 || version > OpenCVFaceRecognition.LATEST_EXTRACTOR_VERSION) {
+            throw new RuntimeException("Unknown feature extractor version " + version);
+        }
+        targetVersion = version;
+        stopRequested = false;
+        running = true;
+        reembedded.set(0);
+        failed.set(0);
+        lastError = null;
+        coordinator.submit(this::run);
+        return getStatus();
+    }
+
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Swap staged vectors into face_encoding and make {@code version} the active extractor.
+     * Refused while users are still pending unless {@code force} is set; forced users keep
+     * their old vector and drop out of matching until re-embedded.
+     *
+     * The pending count, swap and version switch run in one transaction that first takes
+     * the write lock on the active-version row. Registrations read that row under a shared
+     * lock while inserting (UserChangeLog#saveRegistration), so one that committed first
+     * is in the count, and one that commits later sees the new version and is refused.
+     *
+     * The swap writes no user_changes rows. Each node instead reloads its whole index when
+     * it picks up the new version (see {@link #refreshActiveVersion}): the index only holds
+     * vectors of the node's active version, and login queries must switch extractor at the
+     * same moment as the stored vectors, so replaying per-user changes on a node still on
+     * the old version would just drop the swapped users from its index.
+     */
+    public synchronized Map<String, Object> cutover(int version, boolean force) {
+        if (running) throw new RuntimeException("Re-embedding still running");
+        if (version < 1 || version > OpenCVFaceRecognition.LATEST_EXTRACTOR_VERSION) {
+            throw new RuntimeException("Unknown feature extractor version " + version);
+        }
+        long[] counts = transactionTemplate.execute(status -> {
+            Timestamp now = Timestamp.from(Instant.now());
+            jdbcTemplate.update("INSERT INTO runtime_settings (name, setting_value, updated_at) VALUES (?, ?, ?)"
+                    + " ON DUPLICATE KEY UPDATE setting_value = setting_value",
+                    ACTIVE_VERSION_KEY, faceRecognition.getActiveExtractorVersion(), now);
+            long pending = userRepository.countPendingReembed(version);
+            if (pending > 0 && !force) {
+                throw new RuntimeException(pending + " users not yet re-embedded to version " + version);
+            }
+            int rows = jdbcTemplate.update("UPDATE users SET face_encoding = face_encoding_next,"
+                    + " extractor_version = next_extractor_version, face_encoding_next = NULL,"
+                    + " next_extractor_version = NULL WHERE next_extractor_version = ?", version);
+            jdbcTemplate.update("UPDATE runtime_settings SET setting_value = ?, updated_at = ? WHERE name = ?",
+                    version, now, ACTIVE_VERSION_KEY);
+            return new long[]{pending, rows};
+        });
+        System.out.println("🔀 Cut over " + counts[1] + " users to extractor version " + version);
+        applyActiveVersion(version);
+
+        Map<String, Object> result = getStatus();
+        result.put("swapped", counts[1]);
+        result.put("leftBehind", counts[0]);
+        return result;
+    }
+
+    /**
+     * Pick up a cutover performed by another node, with a full index reload.
+     */
+    @Scheduled(fixedDelayString = "${face.reembed.version-poll-ms:5000}")
+    public void refreshActiveVersion() {
+        try {
+            settingRepository.findById(ACTIVE_VERSION_KEY)
+                    .map(setting -> setting.getValue().intValue())
+                    .filter(v -> v != faceRecognition.getActiveExtractorVersion())
+                    .ifPresent(this::applyActiveVersion);
+        } catch (Exception e) {
+            System.err.println("❌ Could not read active extractor version: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running);
+        status.put("activeVersion", faceRecognition.getActiveExtractorVersion());
+        status.put("latestVersion", OpenCVFaceRecognition.LATEST_EXTRACTOR_VERSION);
+        status.put("targetVersion", targetVersion);
+        status.put("position", position);
+        status.put("reembedded", reembedded.get());
+        status.put("failed", failed.get());
+        if (targetVersion > 0) status.put("pending", userRepository.countPendingReembed(targetVersion));
+        status.put("lastError", lastError);
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopRequested = true;
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void applyActiveVersion(int version) {
+        faceRecognition.setActiveExtractorVersion(version);
+        // Users left on the old version must leave the index, the swapped ones must be reloaded
+        indexSyncService.fullResync();
+    }
+
+    private void run() {
+        String jobName = "reembed-v" + targetVersion;
+        System.out.println("\n🧬 ===== RE-EMBEDDING TO EXTRACTOR v" + targetVersion + " START =====");
+        try {
+            position = checkpointRepository.findById(jobName).map(JobCheckpoint::getPosition).orElse(0L);
+            long nanosPerItem = maxPerSecond > 0 ? (long) (1_000_000_000L / maxPerSecond) : 0;
+
+            while (!stopRequested) {
+                List<User> batch = userRepository.findByIdGreaterThanOrderByIdAsc(position, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) break;
+
+                long batchStart = System.nanoTime();
+                List<User> todo = new ArrayList<>();
+                List<Future<List<Double>>> extractions = new ArrayList<>();
+                for (User user : batch) {
+                    if (!needsReembed(user)) continue;
+                    todo.add(user);
+                    extractions.add(workers.submit(() ->
+                            faceRecognition.extractFeaturesFromFaceImage(user.getFaceImagePath(), targetVersion)));
+                }
+
+                List<Object[]> updates = new ArrayList<>();
+                for (int i = 0; i < todo.size(); i++) {
+                    try {
+                        List<Double> features = extractions.get(i).get();
+                        updates.add(new Object[]{FeatureEncoding.format(features), targetVersion, todo.get(i).getId()});
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        lastError = todo.get(i).getUsername() + ": "
+                                + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                    }
+                }
+
+                long lastId = batch.get(batch.size() - 1).getId();
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (!updates.isEmpty()) {
+                        jdbcTemplate.batchUpdate("UPDATE users SET face_encoding_next = ?, next_extractor_version = ?"
+                                + " WHERE id = ?", updates);
+                    }
+                    JobCheckpoint checkpoint = checkpointRepository.findById(jobName)
+                            .orElse(new JobCheckpoint(jobName, lastId));
+                    checkpoint.setPosition(lastId);
+                    checkpointRepository.save(checkpoint);
+                });
+                position = lastId;
+                reembedded.addAndGet(updates.size());
+
+                // Throttle so the job never takes more than its share of the CPU
+                long minDuration = nanosPerItem * todo.size();
+                long sleepNanos = minDuration - (System.nanoTime() - batchStart);
+                if (sleepNanos > 0) Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("❌ Re-embedding failed: " + e.getMessage());
+        } finally {
+            running = false;
+            System.out.println("🧬 ===== RE-EMBEDDING END: " + reembedded.get() + " done, " + failed.get()
+                    + " failed, position " + position + " =====\n");
+        }
+    }
+
+    private boolean needsReembed(User user) {
+        if (user.getFaceImagePath() == null) return false;
+        if (user.getExtractorVersion() == targetVersion) return false;
+        return user.getNextExtractorVersion() == null || user.getNextExtractorVersion() != targetVersion;
+    }
+}
@@ -0,0 +1,57 @@
+package com.facelogin.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Command-line threshold calibration:
+ * <pre>
+ * java -jar face-login.war --spring.main.web-application-type=none \
+ *     --face.calibrate.source=/path/to/corpus --face.calibrate.output=curve.csv
+ * </pre>
+ * Prints the report as JSON and exits with status 0 on success.
+ */
+@Component
+public class ThresholdCalibrationRunner implements ApplicationRunner {
+
+    private final ThresholdCalibrationService calibrationService;
+    private final ApplicationContext context;
+    private final String source;
+    private final String output;
+
+    public ThresholdCalibrationRunner(ThresholdCalibrationService calibrationService,
+                                      ApplicationContext context,
+                                      @Value("${face.calibrate.source:}") String source,
+                                      @Value("${face.calibrate.output:}") String output) {
+        this.calibrationService = calibrationService;
+        this.context = context;
+        this.source = source;
+        this.output = output;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (source.isBlank()) return;
+
+        int exitCode = 0;
+        try {
+            Map<String, Object> report = calibrationService.run(Path.of(source), output.isBlank() ? null : Path.of(output));
+            System.out.println("📐 Calibration report:\n"
+                    + new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report));
+        } catch (Exception e) {
+            System.err.println("❌ Calibration failed: " + e.getMessage());
+            exitCode = 1;
+        }
+        int status = exitCode;
+        System.exit(SpringApplication.exit(context, () -> status));
+    }
+}
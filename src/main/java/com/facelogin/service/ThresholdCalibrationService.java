@@ -0,0 +1,187 @@
+package com.facelogin.service;
+
+import com.facelogin.index.PairDistances;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline accuracy evaluation and threshold calibration.
+ *
+ * The corpus is a directory with one sub-directory per person, each holding that person's
+ * face images. Embeddings are extracted in parallel with the active extractor, then every
+ * pair is scored with {@link PairDistances}: same-person pairs form the genuine
+ * distribution, the rest the impostor one. The report gives FAR/FRR/EER and recommends
+ * <ul>
+ *   <li>a login threshold: the largest with FAR at most {@code target-far}, and</li>
+ *   <li>a registration threshold: the smallest that still flags all but
+ *       {@code target-duplicate-miss} of re-registrations of the same person.</li>
+ * </ul>
+ * Apply them with {@code POST /api/admin/thresholds}.
+ */
+@Service
+public class ThresholdCalibrationService {
+
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".bmp");
+
+    private final OpenCVFaceRecognition faceRecognition;
+    private final MatchThresholds thresholds;
+    private final int threads;
+    private final int bins;
+    private final int curvePoints;
+    private final double targetFar;
+    private final double targetDuplicateMiss;
+
+    public ThresholdCalibrationService(OpenCVFaceRecognition faceRecognition,
+                                       MatchThresholds thresholds,
+                                       @Value("${face.calibrate.threads:0}") int threads,
+                                       @Value("${face.calibrate.bins:4096}") int bins,
+                                       @Value("${face.calibrate.curve-points:100}") int curvePoints,
+                                       @Value("${face.calibrate.target-far:0.001}") double targetFar,
+                                       @Value("${face.calibrate.target-duplicate-miss:0.01}") double targetDuplicateMiss) {
+        this.faceRecognition = faceRecognition;
+        this.thresholds = thresholds;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.bins = Math.max(16, bins);
+        this.curvePoints = Math.max(1, curvePoints);
+        this.targetFar = targetFar;
+        this.targetDuplicateMiss = targetDuplicateMiss;
+    }
+
+    /**
+     * Evaluate the corpus; the FAR/FRR curve is written as CSV to {@code curveOutput} if given.
+     */
+    public Map<String, Object> run(Path corpus, Path curveOutput) throws IOException {
+        if (!Files.isDirectory(corpus)) throw new RuntimeException("Corpus directory not found: " + corpus);
+        if (!faceRecognition.isOpenCVLoaded()) throw new RuntimeException("OpenCV not loaded properly");
+
+        List<Path> images = new ArrayList<>();
+        List<Integer> imageLabels = new ArrayList<>();
+        List<Path> people;
+        try (Stream<Path> dirs = Files.list(corpus)) {
+            people = dirs.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+        for (int label = 0; label < people.size(); label++) {
+            try (Stream<Path> files = Files.list(people.get(label))) {
+                for (Path image : files.filter(ThresholdCalibrationService::isImage).sorted().collect(Collectors.toList())) {
+                    images.add(image);
+                    imageLabels.add(label);
+                }
+            }
+        }
+        System.out.println("📐 Calibrating on " + images.size() + " images of " + people.size() + " people");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // 1. Embed every image in parallel; images without a detectable face are skipped
+            long extractStart = System.currentTimeMillis();
+            List<ForkJoinTask<float[]>> extractions = new ArrayList<>(images.size());
+            for (Path image : images) {
+                extractions.add(pool.submit(() -> embed(image)));
+            }
+            int dim = faceRecognition.getFeatureSize();
+            float[] vectors = new float[images.size() * dim];
+            int[] labels = new int[images.size()];
+            int count = 0;
+            int failed = 0;
+            for (int i = 0; i < extractions.size(); i++) {
+                float[] vector = extractions.get(i).join();
+                if (vector == null || vector.length != dim) {
+                    failed++;
+                    continue;
+                }
+                System.arraycopy(vector, 0, vectors, count * dim, dim);
+                labels[count++] = imageLabels.get(i);
+            }
+            long extractMillis = System.currentTimeMillis() - extractStart;
+
+            // 2. Score all pairs
+            long scoreStart = System.currentTimeMillis();
+            PairDistances distances = PairDistances.compute(vectors, labels, count, dim, bins, pool);
+            long scoreMillis = System.currentTimeMillis() - scoreStart;
+
+            if (curveOutput != null) writeCurve(distances, curveOutput);
+
+            double loginThreshold = distances.thresholdForFar(targetFar);
+            // MatchThresholds requires registration <= login, so never recommend otherwise
+            double registrationThreshold = Math.min(distances.thresholdForFrr(targetDuplicateMiss), loginThreshold);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("people", people.size());
+            report.put("images", images.size());
+            report.put("failedImages", failed);
+            report.put("genuinePairs", distances.getGenuinePairs());
+            report.put("impostorPairs", distances.getImpostorPairs());
+            report.put("genuineMeanDistance", round(distances.getGenuineMean()));
+            report.put("impostorMeanDistance", round(distances.getImpostorMean()));
+            report.put("eer", round(distances.eer()));
+            report.put("eerThreshold", round(distances.eerThreshold()));
+            report.put("current", Map.of(
+                    "login", operatingPoint(distances, thresholds.getLogin()),
+                    "registration", operatingPoint(distances, thresholds.getRegistration())));
+            report.put("recommended", Map.of(
+                    "login", operatingPoint(distances, loginThreshold),
+                    "registration", operatingPoint(distances, registrationThreshold)));
+            report.put("extractMillis", extractMillis);
+            report.put("scoreMillis", scoreMillis);
+            report.put("curve", curveOutput == null ? null : curveOutput.toString());
+            return report;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private float[] embed(Path image) {
+        try {
+            Mat gray = faceRecognition.decodeGray(Files.readAllBytes(image));
+            Rect face = faceRecognition.detectLargestFace(gray);
+            if (face == null) return null;
+            return FeatureEncoding.toVector(faceRecognition.extractFeatures(gray, face));
+        } catch (Exception e) {
+            System.err.println("⚠️ Skipping " + image + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCurve(PairDistances distances, Path output) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+            writer.println("threshold,far,frr");
+            for (double[] point : distances.curve(curvePoints)) {
+                writer.println(String.format(Locale.ROOT, "%.6f,%.6f,%.6f", point[0], point[1], point[2]));
+            }
+        }
+    }
+
+    private static Map<String, Object> operatingPoint(PairDistances distances, double threshold) {
+        Map<String, Object> point = new LinkedHashMap<>();
+        point.put("threshold", round(threshold));
+        point.put("far", round(distances.far(threshold)));
+        point.put("frr", round(distances.frr(threshold)));
+        return point;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1_000_000) / 1_000_000.0;
+    }
+
+    private static boolean isImage(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return Files.isRegularFile(path) && IMAGE_EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+}
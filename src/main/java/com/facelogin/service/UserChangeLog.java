@@ -0,0 +1,51 @@
+package com.facelogin.service;
+
+import com.facelogin.model.User;
+import com.facelogin.model.UserChange;
+import com.facelogin.repository.RuntimeSettingRepository;
+import com.facelogin.repository.UserChangeRepository;
+import com.facelogin.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes to the users table together with their change-log row, in one transaction,
+ * so that nodes tailing user_changes never miss a write.
+ */
+@Service
+public class UserChangeLog {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserChangeRepository userChangeRepository;
+
+    @Autowired
+    private RuntimeSettingRepository settingRepository;
+
+    @Transactional
+    public User save(User user) {
+        UserChange.Operation operation = user.getId() == null ? UserChange.Operation.INSERT : UserChange.Operation.UPDATE;
+        User saved = userRepository.save(user);
+        userChangeRepository.save(new UserChange(saved.getId(), operation));
+        return saved;
+    }
+
+    /**
+     * Save a newly registered user whose vector came from {@code user.getExtractorVersion()}.
+     * The active-version row is read under a shared lock, so a re-embedding cutover
+     * (see ReembedService#cutover) either sees this user in its pending count or has
+     * already switched versions, in which case the registration is refused.
+     */
+    @Transactional
+    public User saveRegistration(User user) {
+        settingRepository.findValueLockShared(ReembedService.ACTIVE_VERSION_KEY)
+                .filter(active -> active.intValue() != user.getExtractorVersion())
+                .ifPresent(active -> {
+                    throw new RuntimeException("Face extractor was just upgraded, please try again");
+                });
+        return save(user);
+    }
+}
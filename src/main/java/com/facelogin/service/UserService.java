@@ -1,13 +1,19 @@
 package com.facelogin.service;
 
+import com.facelogin.index.ClusterSearch;
+import com.facelogin.index.FaceIndex;
+import com.facelogin.index.RegistrationGuard;
+import com.facelogin.index.SearchHit;
+import com.facelogin.model.LoginEvent;
 import com.facelogin.model.User;
 import com.facelogin.repository.UserRepository;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.ImageBufferPool;
 import com.facelogin.util.OpenCVFaceRecognition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,15 +25,31 @@ public class UserService {
     
     @Autowired
     private OpenCVFaceRecognition faceRecognition;
-    
-    // Adjust thresholds as needed
-    private static final double REGISTRATION_THRESHOLD = 0.3;  // Lower = more similar
-    private static final double LOGIN_THRESHOLD = 0.5;         // Lower = more strict
+
+    @Autowired
+    private FaceIndex faceIndex;
+
+    @Autowired
+    private RegistrationGuard registrationGuard;
+
+    @Autowired
+    private ClusterSearch clusterSearch;
+
+    @Autowired
+    private UserChangeLog userChangeLog;
+
+    // Thresholds are configurable and reloadable; see face.thresholds in application.yml
+    @Autowired
+    private MatchThresholds thresholds;
+
+    @Autowired
+    private LoginEventLog loginEventLog;
     
     /**
      * Register new user with face recognition and store embedding.
+     * The image has already been streamed into a pooled buffer (see ImageBufferPool).
      */
-    public User registerUser(String username, String email, MultipartFile faceImage) throws Exception {
+    public User registerUser(String username, String email, ImageBufferPool.PooledImage faceImage) throws Exception {
         System.out.println("\n🎯 ===== OPENCV REGISTRATION START =====");
         System.out.println("👤 Registering user: " + username);
 
@@ -35,32 +57,44 @@ public class UserService {
             throw new RuntimeException("OpenCV face recognition not available");
         }
 
-        // Check for duplicates
-        if (userRepository.findByUsername(username).isPresent()) {
-            throw new RuntimeException("Username already exists");
-        }
-        if (userRepository.findByEmail(email).isPresent()) {
-            throw new RuntimeException("Email already exists");
-        }
-
-        // Extract face features
-        OpenCVFaceRecognition.FaceDetectionResult result = faceRecognition.detectAndExtractFace(faceImage);
-        List<Double> newFeatures = result.getFeatures();
-        System.out.println("✅ OpenCV generated " + newFeatures.size() + " features");
+        // Claim username/email so concurrent registrations of the same identity cannot both pass
+        RegistrationGuard.Reservation reservation = registrationGuard.reserveIdentity(username, email);
+        User savedUser;
+        try {
+            // Check for duplicates
+            if (userRepository.findByUsername(username).isPresent()) {
+                throw new RuntimeException("Username already exists");
+            }
+            if (userRepository.findByEmail(email).isPresent()) {
+                throw new RuntimeException("Email already exists");
+            }
 
-        // Check if face already registered
-        if (isFaceAlreadyRegistered(newFeatures)) {
-            throw new RuntimeException("This face is already registered with another account");
+            // Extract face features
+            OpenCVFaceRecognition.FaceDetectionResult result = faceRecognition.detectAndExtractFace(faceImage.asMat());
+            List<Double> newFeatures = result.getFeatures();
+            System.out.println("✅ OpenCV generated " + newFeatures.size() + " features");
+
+            // Check if face already registered (committed or in flight) and hold it
+            registrationGuard.reserveFace(reservation, newFeatures, thresholds.getRegistration());
+
+            // Create and save user
+            User user = new User(username, email);
+            user.setFaceEncoding(FeatureEncoding.format(newFeatures));
+            user.setFaceImagePath(result.getFaceImagePath());
+            user.setExtractorVersion(result.getExtractorVersion());
+            user.setTelegramChatId(null); // initially not linked
+
+            try {
+                savedUser = userChangeLog.saveRegistration(user);
+            } catch (DataIntegrityViolationException e) {
+                // Unique constraint backstop, e.g. a registration committed by another node
+                throw new RuntimeException("Username or email already exists");
+            }
+            registrationGuard.index(reservation, savedUser.getId(), newFeatures);
+        } finally {
+            registrationGuard.release(reservation);
         }
 
-        // Create and save user
-        User user = new User(username, email);
-        user.setFaceEncoding(convertFeaturesToString(newFeatures));
-        user.setFaceImagePath(result.getFaceImagePath());
-        user.setTelegramChatId(null); // initially not linked
-
-        User savedUser = userRepository.save(user);
-
         System.out.println("🎉 OPENCV REGISTRATION SUCCESS: " + savedUser.getUsername());
         System.out.println("===== REGISTRATION END =====\n");
         return savedUser;
@@ -68,41 +102,89 @@ public class UserService {
 
     /**
      * Login using face recognition. Returns Optional<User> if match found.
+     * Every attempt, including failed ones, is recorded in the login event log.
      */
-    public Optional<User> loginWithFace(MultipartFile faceImage) throws Exception {
+    public Optional<User> loginWithFace(ImageBufferPool.PooledImage faceImage) throws Exception {
         System.out.println("\n🔐 ===== OPENCV LOGIN ATTEMPT =====");
+        long start = System.nanoTime();
 
         if (!faceRecognition.isOpenCVLoaded()) {
             throw new RuntimeException("OpenCV face recognition not available");
         }
 
-        OpenCVFaceRecognition.FaceDetectionResult result = faceRecognition.detectAndExtractFace(faceImage);
+        OpenCVFaceRecognition.FaceDetectionResult result;
+        try {
+            result = faceRecognition.detectAndExtractFace(faceImage.asMat());
+        } catch (OpenCVFaceRecognition.NoFaceDetectedException e) {
+            loginEventLog.record(LoginEvent.Outcome.NO_FACE, LoginEvent.Channel.HTTP, start);
+            throw e;
+        } catch (Exception e) {
+            loginEventLog.record(LoginEvent.Outcome.ERROR, LoginEvent.Channel.HTTP, start);
+            throw e;
+        }
         List<Double> loginFeatures = result.getFeatures();
         System.out.println("✅ OpenCV extracted " + loginFeatures.size() + " login features");
 
-        List<User> allUsers = userRepository.findAll();
-        if (allUsers.isEmpty()) {
-            System.out.println("⚠️ No registered users found!");
-            return Optional.empty();
-        }
+        Match match = recordMatch(loginFeatures, LoginEvent.Channel.HTTP, start, result.getDecodeNanos(),
+                result.getDetectNanos(), result.getExtractNanos());
 
-        User bestMatch = null;
-        double bestScore = Double.MAX_VALUE;
+        System.out.println("===== LOGIN END =====\n");
+        return Optional.ofNullable(match.user);
+    }
 
-        System.out.println("🔍 Comparing with " + allUsers.size() + " users...");
+    /**
+     * Find the registered user whose face is closest to features taken from a stream
+     * frame, if within the login threshold. Recorded in the login event log like an HTTP
+     * login; {@code startNanos} is when work on the frame began.
+     */
+    public Optional<User> identify(List<Double> features, long startNanos, long detectNanos, long extractNanos) {
+        return Optional.ofNullable(recordMatch(features, LoginEvent.Channel.STREAM, startNanos, null,
+                detectNanos, extractNanos).user);
+    }
 
-        for (User user : allUsers) {
-            if (user.getFaceEncoding() == null || user.getFaceEncoding().isEmpty()) continue;
+    private Match recordMatch(List<Double> features, LoginEvent.Channel channel, long start,
+                              Long decodeNanos, long detectNanos, long extractNanos) {
+        long searchStart = System.nanoTime();
+        Match match;
+        try {
+            match = match(features);
+        } catch (RuntimeException e) {
+            loginEventLog.record(LoginEvent.Outcome.ERROR, channel, start);
+            throw e;
+        }
+        long end = System.nanoTime();
+
+        LoginEvent event = new LoginEvent(match.user != null ? LoginEvent.Outcome.MATCH : LoginEvent.Outcome.NO_MATCH,
+                micros(end - start));
+        event.setChannel(channel);
+        event.setMatchedUserId(match.user != null ? match.user.getId() : null);
+        event.setDistances(match.bestDistance, match.secondDistance);
+        event.setStageMicros(decodeNanos == null ? null : micros(decodeNanos), micros(detectNanos),
+                micros(extractNanos), micros(end - searchStart));
+        loginEventLog.record(event);
+        return match;
+    }
 
-            List<Double> storedFeatures = parseFeatures(user.getFaceEncoding());
-            double distance = faceRecognition.compareFeatures(loginFeatures, storedFeatures);
-            System.out.println("   " + user.getUsername() + " → distance = " + distance);
+    private Match match(List<Double> features) {
+        // Two hits so the log can show the margin between the best and the runner-up
+        ClusterSearch.SearchResult searchResult = clusterSearch.search(features, 2);
+        List<SearchHit> hits = searchResult.getHits();
+        if (!searchResult.isComplete()) {
+            System.out.println("⚠️ Partial search: " + searchResult.getNodesResponded() + "/"
+                    + searchResult.getNodesQueried() + " nodes answered, missing " + searchResult.getFailedNodes());
+        }
+        if (hits.isEmpty()) {
+            System.out.println("⚠️ No registered users found!");
+            return new Match(null, null, null);
+        }
 
-            if (distance < bestScore && distance < LOGIN_THRESHOLD) {
-                bestScore = distance;
-                bestMatch = user;
-                System.out.println("   ✅ New best match → " + user.getUsername());
-            }
+        System.out.println("🔍 Searched " + faceIndex.size() + " local indexed faces (" + faceIndex.getQuantization() + ")");
+
+        SearchHit best = hits.get(0);
+        double bestScore = best.getDistance();
+        User bestMatch = null;
+        if (bestScore < thresholds.getLogin()) {
+            bestMatch = userRepository.findById(best.getUserId()).orElse(null);
         }
 
         if (bestMatch != null) {
@@ -110,9 +192,15 @@ public class UserService {
         } else {
             System.out.println("❌ LOGIN FAILED: No match found (best score: " + bestScore + ")");
         }
+        return new Match(bestMatch, bestScore, hits.size() > 1 ? hits.get(1).getDistance() : null);
+    }
 
-        System.out.println("===== LOGIN END =====\n");
-        return Optional.ofNullable(bestMatch);
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    public double getLoginThreshold() {
+        return thresholds.getLogin();
     }
 
     /**
@@ -127,63 +215,10 @@ public class UserService {
 
         User user = optionalUser.get();
         user.setTelegramChatId(chatId);
-        userRepository.save(user);
+        userChangeLog.save(user);
         System.out.println("✅ Telegram chat linked for " + user.getUsername() + ": " + chatId);
     }
 
-    /**
-     * Helper — check if face already exists in system.
-     */
-    private boolean isFaceAlreadyRegistered(List<Double> newFeatures) {
-        List<User> allUsers = userRepository.findAll();
-        if (allUsers.isEmpty()) {
-            System.out.println("✅ No existing users - first registration!");
-            return false;
-        }
-
-        for (User user : allUsers) {
-            if (user.getFaceEncoding() == null || user.getFaceEncoding().isEmpty()) continue;
-            List<Double> storedFeatures = parseFeatures(user.getFaceEncoding());
-            double distance = faceRecognition.compareFeatures(newFeatures, storedFeatures);
-            if (distance < REGISTRATION_THRESHOLD) {
-                System.out.println("❌ Duplicate detected with " + user.getUsername() + " (distance: " + distance + ")");
-                return true;
-            }
-        }
-        System.out.println("✅ No duplicate faces found");
-        return false;
-    }
-
-    /**
-     * Convert list of features → string for database storage.
-     */
-    private String convertFeaturesToString(List<Double> features) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < features.size(); i++) {
-            if (i > 0) sb.append(",");
-            sb.append(String.format("%.6f", features.get(i)));
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
-    /**
-     * Parse feature string back into list.
-     */
-    private List<Double> parseFeatures(String featuresString) {
-        List<Double> features = new ArrayList<>();
-        try {
-            String cleanString = featuresString.replace("[", "").replace("]", "");
-            for (String part : cleanString.split(",")) {
-                features.add(Double.parseDouble(part.trim()));
-            }
-        } catch (Exception e) {
-            System.err.println("❌ Error parsing features: " + e.getMessage());
-        }
-        return features;
-    }
-
     /**
      * Check current system and OpenCV status.
      */
@@ -201,4 +236,16 @@ public class UserService {
     public Optional<User> findById(Long id) {
         return userRepository.findById(id);
     }
+
+    private static class Match {
+        final User user;
+        final Double bestDistance;
+        final Double secondDistance;
+
+        Match(User user, Double bestDistance, Double secondDistance) {
+            this.user = user;
+            this.bestDistance = bestDistance;
+            this.secondDistance = secondDistance;
+        }
+    }
 }
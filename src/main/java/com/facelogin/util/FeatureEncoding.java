@@ -0,0 +1,53 @@
+package com.facelogin.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text encoding of face feature vectors as stored in the users.face_encoding column.
+ */
+public final class FeatureEncoding {
+
+    private FeatureEncoding() {}
+
+    /**
+     * Convert list of features → string for database storage.
+     */
+    public static String format(List<Double> features) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i = 0; i < features.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(String.format("%.6f", features.get(i)));
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    /**
+     * Parse feature string back into list.
+     */
+    public static List<Double> parse(String featuresString) {
+        List<Double> features = new ArrayList<>();
+        try {
+            String cleanString = featuresString.replace("[", "").replace("]", "");
+            for (String part : cleanString.split(",")) {
+                features.add(Double.parseDouble(part.trim()));
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error parsing features: " + e.getMessage());
+        }
+        return features;
+    }
+
+    /**
+     * Unbox a feature list into a primitive vector.
+     */
+    public static float[] toVector(List<Double> features) {
+        float[] vector = new float[features.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = features.get(i).floatValue();
+        }
+        return vector;
+    }
+}
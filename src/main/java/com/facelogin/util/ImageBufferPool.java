@@ -0,0 +1,215 @@
+package com.facelogin.util;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed pool of reusable direct buffers that face uploads are streamed into.
+ *
+ * An upload is read straight from the request (or multipart part) stream into a pooled
+ * buffer. The header is sniffed as the bytes arrive: a payload that is not a JPEG/PNG,
+ * whose declared dimensions exceed {@code max-pixels}, or that grows past
+ * {@code max-bytes} is rejected without reading the rest. The decoder then gets a Mat
+ * that wraps the buffer directly. Upload memory is bounded by
+ * {@code pool-size x max-bytes} off-heap, whatever the concurrency; when every buffer is
+ * in use a request waits up to {@code acquire-timeout-ms} and is then turned away.
+ * Callers take an admission permit before a buffer, so only running requests hold one
+ * and a pool as large as the usual admission limit is never the bottleneck.
+ */
+@Component
+public class ImageBufferPool {
+
+    private final int poolSize;
+    private final int maxBytes;
+    private final long maxPixels;
+    private final long acquireTimeoutMs;
+    private final BlockingQueue<ByteBuffer> free;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejectedTooLarge = new AtomicLong();
+    private final AtomicLong rejectedNotImage = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public ImageBufferPool(@Value("${face.upload.pool-size:16}") int poolSize,
+                           @Value("${face.upload.max-bytes:10485760}") int maxBytes,
+                           @Value("${face.upload.max-pixels:25000000}") long maxPixels,
+                           @Value("${face.upload.acquire-timeout-ms:1000}") long acquireTimeoutMs) {
+        this.poolSize = Math.max(1, poolSize);
+        this.maxBytes = Math.max(1024, maxBytes);
+        this.maxPixels = maxPixels;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.free = new ArrayBlockingQueue<>(this.poolSize);
+    }
+
+    /**
+     * Stream an encoded image into a pooled buffer. {@code declaredLength} is the
+     * Content-Length or part size if known, otherwise -1. The result must be closed.
+     */
+    public PooledImage read(InputStream in, long declaredLength) throws IOException {
+        if (declaredLength > maxBytes) {
+            rejectedTooLarge.incrementAndGet();
+            throw new ImageRejectedException("Image larger than " + maxBytes + " bytes");
+        }
+
+        ByteBuffer buffer = acquire();
+        boolean handedOut = false;
+        try {
+            buffer.clear();
+            ReadableByteChannel channel = Channels.newChannel(in);
+            ImageSniffer sniffer = new ImageSniffer();
+            boolean complete = false;
+            while (!complete) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    complete = true;
+                } else if (!buffer.hasRemaining()) {
+                    if (in.read() >= 0) { // one byte past the limit
+                        rejectedTooLarge.incrementAndGet();
+                        throw new ImageRejectedException("Image larger than " + maxBytes + " bytes");
+                    }
+                    complete = true;
+                }
+                ImageSniffer.Status status = sniffer.sniff(buffer, buffer.position(), complete);
+                if (status == ImageSniffer.Status.NOT_AN_IMAGE) {
+                    rejectedNotImage.incrementAndGet();
+                    throw new ImageRejectedException("Not a JPEG or PNG image");
+                }
+                if (status == ImageSniffer.Status.FOUND
+                        && (long) sniffer.getWidth() * sniffer.getHeight() > maxPixels) {
+                    rejectedTooLarge.incrementAndGet();
+                    throw new ImageRejectedException("Image " + sniffer.getWidth() + "x" + sniffer.getHeight()
+                            + " exceeds " + maxPixels + " pixels");
+                }
+            }
+            accepted.incrementAndGet();
+            PooledImage image = new PooledImage(this, buffer, buffer.position(),
+                    sniffer.getFormat(), sniffer.getWidth(), sniffer.getHeight());
+            handedOut = true;
+            return image;
+        } finally {
+            if (!handedOut) release(buffer);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("poolSize", poolSize);
+        metrics.put("bufferBytes", maxBytes);
+        metrics.put("allocated", allocated.get());
+        metrics.put("inUse", inUse.get());
+        metrics.put("accepted", accepted.get());
+        metrics.put("rejectedTooLarge", rejectedTooLarge.get());
+        metrics.put("rejectedNotImage", rejectedNotImage.get());
+        metrics.put("exhausted", exhausted.get());
+        return metrics;
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            // Buffers are allocated on first need, never beyond the pool size
+            int count = allocated.get();
+            while (buffer == null && count < poolSize) {
+                if (allocated.compareAndSet(count, count + 1)) {
+                    buffer = ByteBuffer.allocateDirect(maxBytes);
+                } else {
+                    count = allocated.get();
+                }
+            }
+        }
+        if (buffer == null) {
+            try {
+                buffer = free.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (buffer == null) {
+            exhausted.incrementAndGet();
+            throw new PoolExhaustedException();
+        }
+        inUse.incrementAndGet();
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        free.offer(buffer);
+    }
+
+    /**
+     * An encoded image held in a pooled buffer; closing it returns the buffer.
+     */
+    public static class PooledImage implements AutoCloseable {
+        private final ImageBufferPool pool;
+        private final ByteBuffer buffer;
+        private final int length;
+        private final String format;
+        private final int width;
+        private final int height;
+        private boolean closed;
+
+        private PooledImage(ImageBufferPool pool, ByteBuffer buffer, int length, String format, int width, int height) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.length = length;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * A 1xN CV_8UC1 Mat over the buffer itself (no copy). Only valid until close().
+         */
+        public Mat asMat() {
+            if (closed) throw new IllegalStateException("Image buffer already released");
+            return new Mat(1, length, CvType.CV_8UC1, buffer);
+        }
+
+        public int getLength() { return length; }
+        public String getFormat() { return format; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * The upload is not a JPEG/PNG or exceeds the byte or pixel limits.
+     */
+    public static class ImageRejectedException extends RuntimeException {
+        public ImageRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Every upload buffer is in use; the caller should answer 503 and let the client retry.
+     */
+    public static class PoolExhaustedException extends RuntimeException {
+        public PoolExhaustedException() {
+            super("All upload buffers are in use");
+        }
+    }
+}
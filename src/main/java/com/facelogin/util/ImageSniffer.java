@@ -0,0 +1,90 @@
+package com.facelogin.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the format and pixel dimensions from the first bytes of a JPEG or PNG, so an
+ * upload can be rejected before it has been read in full or decoded.
+ */
+public final class ImageSniffer {
+
+    public enum Status { NEED_MORE, NOT_AN_IMAGE, FOUND }
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private Status status = Status.NEED_MORE;
+    private String format;
+    private int width;
+    private int height;
+
+    /**
+     * Look at {@code buffer[0..length)}. Call again with a longer prefix while the result
+     * is {@link Status#NEED_MORE}; pass {@code complete} once the whole payload is there.
+     */
+    public Status sniff(ByteBuffer buffer, int length, boolean complete) {
+        if (status == Status.NEED_MORE && (length >= PNG_SIGNATURE.length || complete)) {
+            status = length >= 3 && u8(buffer, 0) == 0xFF && u8(buffer, 1) == 0xD8 && u8(buffer, 2) == 0xFF
+                    ? sniffJpeg(buffer, length)
+                    : sniffPng(buffer, length);
+            if (status == Status.NEED_MORE && complete) status = Status.NOT_AN_IMAGE;
+        }
+        return status;
+    }
+
+    public String getFormat() { return format; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    private Status sniffPng(ByteBuffer buffer, int length) {
+        for (int i = 0; i < Math.min(length, PNG_SIGNATURE.length); i++) {
+            if (buffer.get(i) != PNG_SIGNATURE[i]) return Status.NOT_AN_IMAGE;
+        }
+        // Signature, then the IHDR chunk: length(4) "IHDR"(4) width(4) height(4)
+        if (length < 24) return Status.NEED_MORE;
+        if (buffer.get(12) != 'I' || buffer.get(13) != 'H' || buffer.get(14) != 'D' || buffer.get(15) != 'R') {
+            return Status.NOT_AN_IMAGE;
+        }
+        return found("png", buffer.getInt(16), buffer.getInt(20));
+    }
+
+    private Status sniffJpeg(ByteBuffer buffer, int length) {
+        // Walk the marker segments up to the first start-of-frame, which holds the size
+        int pos = 2;
+        while (true) {
+            if (pos + 4 > length) return Status.NEED_MORE;
+            if (u8(buffer, pos) != 0xFF) return Status.NOT_AN_IMAGE;
+            int marker = u8(buffer, pos + 1);
+            if (marker == 0xFF) {               // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // no payload
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) return Status.NOT_AN_IMAGE; // end / scan before a frame
+            int segmentLength = (u8(buffer, pos + 2) << 8) | u8(buffer, pos + 3);
+            if (segmentLength < 2) return Status.NOT_AN_IMAGE;
+            boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (startOfFrame) {
+                if (pos + 9 > length) return Status.NEED_MORE;
+                int frameHeight = (u8(buffer, pos + 5) << 8) | u8(buffer, pos + 6);
+                int frameWidth = (u8(buffer, pos + 7) << 8) | u8(buffer, pos + 8);
+                return found("jpeg", frameWidth, frameHeight);
+            }
+            pos += 2 + segmentLength;
+        }
+    }
+
+    private Status found(String format, int width, int height) {
+        if (width <= 0 || height <= 0) return Status.NOT_AN_IMAGE;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        return Status.FOUND;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+}
@@ -4,26 +4,56 @@ import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class OpenCVFaceRecognition {
     
-    private CascadeClassifier faceDetector;
+    // CascadeClassifier keeps per-call scratch state and is not safe to share, so each
+    // thread (request, import or re-embed worker) lazily loads its own copy
+    private volatile String faceCascadePath;
+    private volatile String eyeCascadePath;
+    private final ThreadLocal<CascadeClassifier> faceDetector =
+            ThreadLocal.withInitial(() -> new CascadeClassifier(faceCascadePath));
+    private final ThreadLocal<CascadeClassifier> eyeDetector =
+            ThreadLocal.withInitial(() -> new CascadeClassifier(eyeCascadePath));
     private boolean openCVLoaded = false;
     private static final int FIXED_FEATURE_SIZE = 256; // Fixed size for all feature vectors
     
+    // Bump when extractFixedSizeFeatures changes and keep the previous branch until the
+    // re-embedding job has cut every stored vector over to the new version
+    //   1: unaligned face crop resized to 100x100
+    //   2: crop rotated/scaled so the eyes land on fixed positions first (see alignFace)
+    public static final int LATEST_EXTRACTOR_VERSION = 2;
+    
+    // Canonical eye centres in the 100x100 face used for feature extraction
+    private static final double ALIGNED_LEFT_EYE_X = 30;
+    private static final double ALIGNED_RIGHT_EYE_X = 70;
+    private static final double ALIGNED_EYE_Y = 35;
+    private static final double EYE_SEARCH_WIDTH = 160;
+    
+    @Value("${face.extractor.active-version:1}")
+    private volatile int activeExtractorVersion = 1;
+    private final AtomicLong saveSequence = new AtomicLong();
+    private final AtomicLong alignAttempts = new AtomicLong();
+    private final AtomicLong alignFallbacks = new AtomicLong();
+    private final AtomicLong alignNanos = new AtomicLong();
+    private final AtomicLong alignMaxNanos = new AtomicLong();
+    
     @PostConstruct
     public void init() {
         try {
@@ -50,70 +80,147 @@ public class OpenCVFaceRecognition {
             try (InputStream inputStream = faceResource.getInputStream()) {
                 Files.copy(inputStream, faceFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
             }
-            faceDetector = new CascadeClassifier(faceFile.getAbsolutePath());
+            faceCascadePath = faceFile.getAbsolutePath();
             
-            if (faceDetector.empty()) {
+            if (faceDetector.get().empty()) {
                 System.err.println("❌ Error loading face detector!");
             } else {
                 System.out.println("✅ Face detector loaded successfully!");
             }
             
+            // Load eye detector (used for alignment; extraction still works without it)
+            ClassPathResource eyeResource = new ClassPathResource("haarcascades/haarcascade_eye.xml");
+            File eyeFile = File.createTempFile("haarcascade_eye", ".xml");
+            try (InputStream inputStream = eyeResource.getInputStream()) {
+                Files.copy(inputStream, eyeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (new CascadeClassifier(eyeFile.getAbsolutePath()).empty()) {
+                System.err.println("❌ Error loading eye detector!");
+            } else {
+                eyeCascadePath = eyeFile.getAbsolutePath();
+                System.out.println("✅ Eye detector loaded successfully!");
+            }
+            
         } catch (Exception e) {
             System.err.println("❌ Error loading classifiers: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
-    public FaceDetectionResult detectAndExtractFace(MultipartFile multipartFile) throws Exception {
+    public FaceDetectionResult detectAndExtractFace(byte[] imageBytes) {
+        if (!openCVLoaded) {
+            throw new RuntimeException("OpenCV not loaded properly");
+        }
+        return detectAndExtractFace(new MatOfByte(imageBytes));
+    }
+    
+    /**
+     * Detect and extract from an encoded JPEG/PNG held in a 1xN byte Mat, e.g. one
+     * wrapping a pooled upload buffer (see ImageBufferPool.PooledImage#asMat).
+     */
+    public FaceDetectionResult detectAndExtractFace(Mat encodedImage) {
         if (!openCVLoaded) {
             throw new RuntimeException("OpenCV not loaded properly");
         }
         
-        // Save uploaded file temporarily
-        File tempFile = File.createTempFile("face_input", ".jpg");
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(multipartFile.getBytes());
+        // Decode in memory instead of round-tripping through a temp file
+        long start = System.nanoTime();
+        Mat image = Imgcodecs.imdecode(encodedImage, Imgcodecs.IMREAD_COLOR);
+        if (image.empty()) {
+            throw new RuntimeException("Cannot read image file");
         }
         
-        try {
-            // Read image
-            Mat image = Imgcodecs.imread(tempFile.getAbsolutePath());
-            if (image.empty()) {
-                throw new RuntimeException("Cannot read image file");
-            }
-            
-            // Convert to grayscale for face detection
-            Mat gray = new Mat();
-            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
-            
-            // Detect faces
-            MatOfRect faceDetections = new MatOfRect();
-            faceDetector.detectMultiScale(gray, faceDetections, 1.1, 3, 0, new Size(30, 30));
-            
-            Rect[] facesArray = faceDetections.toArray();
-            if (facesArray.length == 0) {
-                throw new RuntimeException("No face detected in the image");
-            }
-            
-            // Use the largest face found
-            Rect largestFace = getLargestFace(facesArray);
-            
-            // Extract face region
-            Mat faceRegion = new Mat(gray, largestFace);
-            
-            // Extract features from the face with FIXED size
-            List<Double> features = extractFixedSizeFeatures(faceRegion);
-            
-            // Save the detected face image
-            String faceImagePath = saveDetectedFace(image, largestFace, "detected_face");
-            
-            System.out.println("✅ OpenCV generated " + features.size() + " features");
-            return new FaceDetectionResult(features, faceImagePath, largestFace);
-            
-        } finally {
-            // Clean up temp file
-            tempFile.delete();
+        // Convert to grayscale for face detection
+        Mat gray = new Mat();
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        long decoded = System.nanoTime();
+        
+        // Detect faces
+        MatOfRect faceDetections = new MatOfRect();
+        faceDetector.get().detectMultiScale(gray, faceDetections, 1.1, 3, 0, new Size(30, 30));
+        
+        Rect[] facesArray = faceDetections.toArray();
+        if (facesArray.length == 0) {
+            throw new NoFaceDetectedException();
+        }
+        
+        // Use the largest face found
+        Rect largestFace = getLargestFace(facesArray);
+        long detected = System.nanoTime();
+        
+        // Extract face region
+        Mat faceRegion = new Mat(gray, largestFace);
+        
+        // Extract features from the face with FIXED size; read the version once so the
+        // result says which extractor actually produced it, even across a cutover
+        int extractorVersion = activeExtractorVersion;
+        List<Double> features = extractFixedSizeFeatures(faceRegion, extractorVersion);
+        long extracted = System.nanoTime();
+        
+        // Save the detected face image
+        String faceImagePath = saveDetectedFace(image, largestFace, "detected_face");
+        
+        System.out.println("✅ OpenCV generated " + features.size() + " features");
+        FaceDetectionResult result = new FaceDetectionResult(features, faceImagePath, largestFace, extractorVersion);
+        result.setStageNanos(decoded - start, detected - decoded, extracted - detected);
+        return result;
+    }
+    
+    /**
+     * Decode an encoded frame straight to grayscale (streaming path, no face crop saved).
+     */
+    public Mat decodeGray(byte[] imageBytes) {
+        if (!openCVLoaded) {
+            throw new RuntimeException("OpenCV not loaded properly");
+        }
+        Mat gray = Imgcodecs.imdecode(new MatOfByte(imageBytes), Imgcodecs.IMREAD_GRAYSCALE);
+        if (gray.empty()) {
+            throw new RuntimeException("Cannot read image file");
         }
+        return gray;
+    }
+    
+    /**
+     * Full-frame detection of the largest face, or null.
+     */
+    public Rect detectLargestFace(Mat gray) {
+        MatOfRect faceDetections = new MatOfRect();
+        faceDetector.get().detectMultiScale(gray, faceDetections, 1.1, 3, 0, new Size(30, 30));
+        Rect[] facesArray = faceDetections.toArray();
+        return facesArray.length == 0 ? null : getLargestFace(facesArray);
+    }
+    
+    /**
+     * Look for the face only in a window around its previous position and at scales close
+     * to its previous size. Much cheaper than a full-frame scan; returns null if lost.
+     */
+    public Rect detectFaceNear(Mat gray, Rect previous, double margin) {
+        int padX = (int) (previous.width * margin);
+        int padY = (int) (previous.height * margin);
+        int x = Math.max(0, previous.x - padX);
+        int y = Math.max(0, previous.y - padY);
+        int right = Math.min(gray.cols(), previous.x + previous.width + padX);
+        int bottom = Math.min(gray.rows(), previous.y + previous.height + padY);
+        if (right - x < 30 || bottom - y < 30) return null;
+        
+        Rect window = new Rect(x, y, right - x, bottom - y);
+        Mat roi = new Mat(gray, window);
+        MatOfRect faceDetections = new MatOfRect();
+        Size minSize = new Size(Math.max(30, previous.width * 0.7), Math.max(30, previous.height * 0.7));
+        Size maxSize = new Size(previous.width * 1.4, previous.height * 1.4);
+        faceDetector.get().detectMultiScale(roi, faceDetections, 1.1, 3, 0, minSize, maxSize);
+        
+        Rect[] facesArray = faceDetections.toArray();
+        if (facesArray.length == 0) return null;
+        Rect face = getLargestFace(facesArray);
+        return new Rect(face.x + x, face.y + y, face.width, face.height);
+    }
+    
+    /**
+     * Features of a face region with the active extractor.
+     */
+    public List<Double> extractFeatures(Mat gray, Rect face) {
+        return extractFixedSizeFeatures(new Mat(gray, face), activeExtractorVersion);
     }
     
     private Rect getLargestFace(Rect[] faces) {
@@ -126,10 +233,34 @@ public class OpenCVFaceRecognition {
         return largest;
     }
     
-    private List<Double> extractFixedSizeFeatures(Mat faceImage) {
-        // Resize to standard size for consistent feature extraction
-        Mat resized = new Mat();
-        Imgproc.resize(faceImage, resized, new Size(100, 100));
+    /**
+     * Re-extract features from a saved face crop (see saveDetectedFace) with a given
+     * extractor version. Used by the re-embedding job; does not save a new crop.
+     */
+    public List<Double> extractFeaturesFromFaceImage(String faceImagePath, int extractorVersion) {
+        if (!openCVLoaded) {
+            throw new RuntimeException("OpenCV not loaded properly");
+        }
+        Mat face = Imgcodecs.imread(faceImagePath);
+        if (face.empty()) {
+            throw new RuntimeException("Cannot read face image " + faceImagePath);
+        }
+        Mat gray = new Mat();
+        Imgproc.cvtColor(face, gray, Imgproc.COLOR_BGR2GRAY);
+        return extractFixedSizeFeatures(gray, extractorVersion);
+    }
+    
+    private List<Double> extractFixedSizeFeatures(Mat faceImage, int extractorVersion) {
+        if (extractorVersion < 1 || extractorVersion > LATEST_EXTRACTOR_VERSION) {
+            throw new RuntimeException("Unknown feature extractor version " + extractorVersion);
+        }
+        
+        // Resize to standard size for consistent feature extraction, aligned on the eyes from v2
+        Mat resized = extractorVersion >= 2 ? alignFace(faceImage) : null;
+        if (resized == null) {
+            resized = new Mat();
+            Imgproc.resize(faceImage, resized, new Size(100, 100));
+        }
         
         // Extract multiple feature types to ensure consistent size
         List<Double> allFeatures = new ArrayList<>();
@@ -150,6 +281,100 @@ public class OpenCVFaceRecognition {
         return normalizeFeatureSize(allFeatures);
     }
     
+    /**
+     * Rotate and scale a grayscale face crop so the eye centres land on the canonical
+     * positions of a 100x100 image. Eyes are only searched for in the upper half of the
+     * crop. Returns null (caller falls back to a plain resize) if two plausible eyes
+     * are not found.
+     */
+    private Mat alignFace(Mat face) {
+        if (eyeCascadePath == null) return null;
+        long start = System.nanoTime();
+        alignAttempts.incrementAndGet();
+        try {
+            // Search a downscaled copy: eyes stay well above the 20px cascade window and the
+            // cost no longer grows with the resolution of the upload
+            Mat upperHalf = new Mat(face, new Rect(0, 0, face.cols(), face.rows() / 2));
+            double shrink = Math.min(1.0, EYE_SEARCH_WIDTH / face.cols());
+            if (shrink < 1.0) {
+                Mat small = new Mat();
+                Imgproc.resize(upperHalf, small, new Size(), shrink, shrink, Imgproc.INTER_AREA);
+                upperHalf = small;
+            }
+            int width = upperHalf.cols();
+            MatOfRect eyeDetections = new MatOfRect();
+            eyeDetector.get().detectMultiScale(upperHalf, eyeDetections, 1.1, 3, 0,
+                    new Size(width / 12.0, width / 12.0), new Size(width / 2.5, width / 2.5));
+            
+            Point[] eyes = pickEyePair(eyeDetections.toArray(), width);
+            if (eyes == null) {
+                alignFallbacks.incrementAndGet();
+                return null;
+            }
+            
+            for (Point eye : eyes) {
+                eye.x /= shrink;
+                eye.y /= shrink;
+            }
+            Mat aligned = new Mat();
+            Imgproc.warpAffine(face, aligned, eyeAlignment(eyes[0], eyes[1]), new Size(100, 100),
+                    Imgproc.INTER_LINEAR, Core.BORDER_REPLICATE);
+            return aligned;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            alignNanos.addAndGet(elapsed);
+            alignMaxNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+    
+    /**
+     * Similarity transform (2x3) that rotates about the eye midpoint to level the eyes,
+     * scales to the canonical eye distance, then moves the midpoint to its canonical position.
+     */
+    static Mat eyeAlignment(Point leftEye, Point rightEye) {
+        double dx = rightEye.x - leftEye.x;
+        double dy = rightEye.y - leftEye.y;
+        double angle = Math.toDegrees(Math.atan2(dy, dx));
+        double scale = (ALIGNED_RIGHT_EYE_X - ALIGNED_LEFT_EYE_X) / Math.sqrt(dx * dx + dy * dy);
+        Point mid = new Point((leftEye.x + rightEye.x) / 2, (leftEye.y + rightEye.y) / 2);
+        Mat transform = Imgproc.getRotationMatrix2D(mid, angle, scale);
+        transform.put(0, 2, transform.get(0, 2)[0] + (ALIGNED_LEFT_EYE_X + ALIGNED_RIGHT_EYE_X) / 2 - mid.x);
+        transform.put(1, 2, transform.get(1, 2)[0] + ALIGNED_EYE_Y - mid.y);
+        return transform;
+    }
+    
+    /**
+     * Centres of the left and right eye among the detections, or null: the two largest
+     * detections, one on each side of the face, far enough apart and roughly level.
+     */
+    static Point[] pickEyePair(Rect[] detections, int faceWidth) {
+        if (detections.length < 2) return null;
+        Arrays.sort(detections, (a, b) -> Double.compare(b.area(), a.area()));
+        Rect first = detections[0];
+        Rect second = detections[1];
+        Point a = new Point(first.x + first.width / 2.0, first.y + first.height / 2.0);
+        Point b = new Point(second.x + second.width / 2.0, second.y + second.height / 2.0);
+        Point left = a.x <= b.x ? a : b;
+        Point right = a.x <= b.x ? b : a;
+        double dx = right.x - left.x;
+        double dy = right.y - left.y;
+        if (dx < faceWidth * 0.2 || Math.abs(dy) > dx * 0.6) return null; // same eye twice, or not a pair
+        if (left.x > faceWidth / 2.0 || right.x < faceWidth / 2.0) return null;
+        return new Point[]{left, right};
+    }
+    
+    public Map<String, Object> getAlignmentMetrics() {
+        long attempts = alignAttempts.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("eyeDetectorLoaded", eyeCascadePath != null);
+        metrics.put("attempts", attempts);
+        metrics.put("aligned", attempts - alignFallbacks.get());
+        metrics.put("fallbacks", alignFallbacks.get());
+        metrics.put("avgMicros", attempts == 0 ? 0 : alignNanos.get() / attempts / 1000);
+        metrics.put("maxMicros", alignMaxNanos.get() / 1000);
+        return metrics;
+    }
+    
     private List<Double> extractStatisticalFeatures(Mat image) {
         List<Double> features = new ArrayList<>();
         
@@ -288,7 +513,8 @@ public class OpenCVFaceRecognition {
         // Extract face region from original color image
         Mat faceColor = new Mat(originalImage, faceRect);
         
-        String filename = prefix + "_" + System.currentTimeMillis() + ".jpg";
+        // Sequence suffix keeps names unique when faces are saved in parallel
+        String filename = prefix + "_" + System.currentTimeMillis() + "_" + saveSequence.incrementAndGet() + ".jpg";
         String filePath = uploadDir + filename;
         
         Imgcodecs.imwrite(filePath, faceColor);
@@ -329,20 +555,58 @@ public class OpenCVFaceRecognition {
         return FIXED_FEATURE_SIZE;
     }
     
+    public int getActiveExtractorVersion() {
+        return activeExtractorVersion;
+    }
+    
+    public void setActiveExtractorVersion(int version) {
+        if (version < 1 || version > LATEST_EXTRACTOR_VERSION) {
+            throw new RuntimeException("Unknown feature extractor version " + version);
+        }
+        if (version != activeExtractorVersion) {
+            System.out.println("🔀 Active feature extractor version " + activeExtractorVersion + " → " + version);
+        }
+        activeExtractorVersion = version;
+    }
+    
+    /**
+     * The image decoded fine but contains no detectable face.
+     */
+    public static class NoFaceDetectedException extends RuntimeException {
+        public NoFaceDetectedException() {
+            super("No face detected in the image");
+        }
+    }
+    
     // Inner class to hold face detection results
     public static class FaceDetectionResult {
         private List<Double> features;
         private String faceImagePath;
         private Rect faceRect;
+        private int extractorVersion;
+        private long decodeNanos;
+        private long detectNanos;
+        private long extractNanos;
         
-        public FaceDetectionResult(List<Double> features, String faceImagePath, Rect faceRect) {
+        public FaceDetectionResult(List<Double> features, String faceImagePath, Rect faceRect, int extractorVersion) {
             this.features = features;
             this.faceImagePath = faceImagePath;
             this.faceRect = faceRect;
+            this.extractorVersion = extractorVersion;
+        }
+        
+        void setStageNanos(long decodeNanos, long detectNanos, long extractNanos) {
+            this.decodeNanos = decodeNanos;
+            this.detectNanos = detectNanos;
+            this.extractNanos = extractNanos;
         }
         
         public List<Double> getFeatures() { return features; }
         public String getFaceImagePath() { return faceImagePath; }
         public Rect getFaceRect() { return faceRect; }
+        public int getExtractorVersion() { return extractorVersion; }
+        public long getDecodeNanos() { return decodeNanos; }
+        public long getDetectNanos() { return detectNanos; }
+        public long getExtractNanos() { return extractNanos; }
     }
 }
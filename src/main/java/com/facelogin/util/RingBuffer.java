@@ -0,0 +1,67 @@
+package com.facelogin.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer, single-consumer queue.
+ *
+ * Producers claim a sequence number with a CAS on {@code tail} and publish the element
+ * into its slot; when the buffer is full {@link #offer} fails immediately instead of
+ * waiting, so callers on a request path never block. The single consumer takes slots in
+ * sequence order and stops at a claimed slot whose element is not yet published.
+ */
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // next sequence to claim
+    private volatile long head = 0;                     // next sequence to consume
+
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add an element; returns false without waiting if the buffer is full.
+     */
+    public boolean offer(T element) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length()) return false;
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int) sequence & mask, element);
+        return true;
+    }
+
+    /**
+     * Move up to {@code max} elements into {@code into}; consumer thread only.
+     */
+    public int drainTo(List<T> into, int max) {
+        long sequence = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) sequence & mask;
+            T element = slots.get(index);
+            if (element == null) break; // empty, or claimed but not yet published
+            slots.lazySet(index, null);
+            into.add(element);
+            sequence++;
+            drained++;
+        }
+        head = sequence;
+        return drained;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+}
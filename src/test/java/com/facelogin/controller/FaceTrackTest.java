@@ -0,0 +1,161 @@
+package com.facelogin.controller;
+
+import com.facelogin.model.User;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FaceTrackTest {
+
+    private static final double THRESHOLD = 0.5;
+    private static final List<Double> STORED = List.of(1.0, 0.0);
+
+    private final User alice = user(1, "alice");
+
+    @Test
+    void newFaceIsSearchedThenOnlyVerifiedAtTheCadence() {
+        FaceTrack track = new FaceTrack(15, 5, 150, 0, 0);
+
+        track.nextFrame();
+        assertTrue(track.needsFullScan());
+        track.detected(true);
+        boolean changed = track.moveTo(new Rect(100, 100, 80, 80));
+        assertTrue(changed);
+        assertTrue(track.needsVerify(changed));
+        assertTrue(track.verified(changed, 0, THRESHOLD));
+        track.searched(alice, STORED, 0.1, THRESHOLD);
+        assertEquals(0.8, track.confidence, 1e-9);
+
+        // Small movement: same track, no feature work until the verify cadence
+        for (int i = 2; i <= 5; i++) {
+            track.nextFrame();
+            assertFalse(track.needsFullScan());
+            assertFalse(track.moveTo(new Rect(100 + i, 100, 80, 80)));
+            assertFalse(track.needsVerify(false));
+        }
+        track.nextFrame();
+        assertFalse(track.moveTo(new Rect(106, 100, 80, 80)));
+        assertTrue(track.needsVerify(false));
+        // Still close to alice's stored features: no new search
+        assertFalse(track.verified(false, 0.2, THRESHOLD));
+        assertEquals(0.6, track.confidence, 1e-9);
+        assertEquals(alice, track.user);
+        assertEquals(1, track.searches);
+    }
+
+    @Test
+    void driftOrJumpTriggersReidentification() {
+        FaceTrack track = matchedTrack();
+
+        // Features drifted past the login threshold: confidence gone, search again
+        advance(track, 5);
+        assertTrue(track.verified(false, 0.6, THRESHOLD));
+        assertTrue(track.confidence <= 0);
+
+        // A face far from the last rectangle is a new track even if the old one was matched
+        track.nextFrame();
+        boolean changed = track.moveTo(new Rect(400, 300, 80, 80));
+        assertTrue(changed);
+        assertTrue(track.needsVerify(changed));
+        assertTrue(track.verified(changed, 0.0, THRESHOLD));
+    }
+
+    @Test
+    void unmatchedFaceIsRetriedAtTheVerifyCadence() {
+        FaceTrack track = new FaceTrack(15, 5, 150, 0, 0);
+        track.nextFrame();
+        assertTrue(track.verified(track.moveTo(new Rect(0, 0, 50, 50)), 0, THRESHOLD));
+        track.searched(null, null, 0, THRESHOLD);
+        assertNull(track.user);
+
+        advance(track, 4);
+        assertFalse(track.needsVerify(false));
+        advance(track, 1);
+        assertTrue(track.needsVerify(false));
+        assertTrue(track.verified(false, 0, THRESHOLD));
+    }
+
+    @Test
+    void identityIsRematchedPeriodicallyAndFullScansRecur() {
+        FaceTrack track = matchedTrack();
+        advance(track, 14);
+        assertFalse(track.needsFullScan());
+        track.nextFrame();
+        assertTrue(track.needsFullScan());
+        track.detected(true);
+
+        advance(track, 4); // frame 20
+        for (int i = 0; i < 26; i++) {
+            advance(track, 5);
+            assertFalse(track.verified(false, 0.1, THRESHOLD), "frame " + track.frames);
+        }
+        advance(track, 1); // frame 151: 150 frames since the search
+        assertTrue(track.verified(false, 0.1, THRESHOLD));
+    }
+
+    @Test
+    void losingTheFaceForgetsTheIdentity() {
+        FaceTrack track = matchedTrack();
+        track.nextFrame();
+        track.lost();
+        assertNull(track.user);
+        assertNull(track.rect);
+        assertTrue(track.needsFullScan());
+        track.nextFrame();
+        assertTrue(track.moveTo(new Rect(100, 100, 80, 80)));
+    }
+
+    @Test
+    void framesAboveTheRateLimitAreDropped() {
+        long second = 1_000_000_000L;
+        FaceTrack track = new FaceTrack(15, 5, 150, 10, 0);
+        int accepted = 0;
+        for (int i = 0; i < 30; i++) {
+            if (track.tryAcceptFrame(i * second / 30)) accepted++; // 30 fps for one second
+        }
+        assertTrue(accepted >= 10 && accepted <= 20, "accepted " + accepted);
+        assertEquals(30 - accepted, track.dropped);
+
+        // After a pause the bucket refills, but only up to one second of frames
+        int burst = 0;
+        for (int i = 0; i < 30; i++) {
+            if (track.tryAcceptFrame(10 * second)) burst++;
+        }
+        assertEquals(10, burst);
+    }
+
+    @Test
+    void overlapIsIntersectionOverUnion() {
+        assertEquals(1.0, FaceTrack.overlap(new Rect(0, 0, 10, 10), new Rect(0, 0, 10, 10)), 1e-9);
+        assertEquals(0.0, FaceTrack.overlap(new Rect(0, 0, 10, 10), new Rect(20, 20, 10, 10)), 1e-9);
+        assertEquals(50.0 / 150.0, FaceTrack.overlap(new Rect(0, 0, 10, 10), new Rect(5, 0, 10, 10)), 1e-9);
+    }
+
+    private FaceTrack matchedTrack() {
+        FaceTrack track = new FaceTrack(15, 5, 150, 0, 0);
+        track.nextFrame();
+        track.detected(true);
+        track.verified(track.moveTo(new Rect(100, 100, 80, 80)), 0, THRESHOLD);
+        track.searched(alice, STORED, 0.1, THRESHOLD);
+        return track;
+    }
+
+    private static void advance(FaceTrack track, int frames) {
+        for (int i = 0; i < frames; i++) {
+            track.nextFrame();
+            if (track.needsFullScan()) track.detected(true);
+        }
+    }
+
+    private static User user(long id, String name) {
+        User user = new User(name, name + "@example.com");
+        user.setId(id);
+        return user;
+    }
+}
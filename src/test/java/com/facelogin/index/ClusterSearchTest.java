@@ -0,0 +1,140 @@
+package com.facelogin.index;
+
+import com.facelogin.model.User;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two shard nodes on localhost: node 0 in-process, node 1 behind a plain HTTP server
+ * speaking the internal wire format.
+ */
+class ClusterSearchTest {
+
+    private static final String TOKEN = "cluster-secret";
+
+    private final OpenCVFaceRecognition faceRecognition = new OpenCVFaceRecognition();
+    private final Random random = new Random(11);
+    private HttpServer remote;
+    private volatile long remoteDelayMs = 0;
+
+    @AfterEach
+    void stopRemote() {
+        if (remote != null) remote.stop(0);
+    }
+
+    @Test
+    void scatterGatherFindsUsersOnEveryShard() throws Exception {
+        List<User> users = randomUsers(60);
+        ClusterSearch cluster = startCluster(users, 2000);
+
+        for (User user : users) {
+            List<Double> query = FeatureEncoding.parse(user.getFaceEncoding());
+            ClusterSearch.SearchResult result = cluster.search(query, 1);
+            assertTrue(result.isComplete());
+            assertEquals(user.getId(), result.getHits().get(0).getUserId());
+            assertEquals(0.0, result.getHits().get(0).getDistance(), 1e-4);
+        }
+    }
+
+    @Test
+    void slowShardYieldsPartialResult() throws Exception {
+        List<User> users = randomUsers(50);
+        ClusterSearch cluster = startCluster(users, 100);
+        remoteDelayMs = 1000;
+
+        ClusterSearch.SearchResult result = cluster.search(FeatureEncoding.parse(users.get(0).getFaceEncoding()), 3);
+        assertFalse(result.isComplete());
+        assertEquals(2, result.getNodesQueried());
+        assertEquals(1, result.getNodesResponded());
+        assertEquals(1, result.getFailedNodes().size());
+        assertFalse(result.getHits().isEmpty());
+    }
+
+    @Test
+    void clusterTokenIsRequiredAndChecked() throws Exception {
+        String nodes = "http://localhost:1,http://localhost:2";
+        ShardRouter router = new ShardRouter(true, 16, nodes, 0);
+        assertThrows(IllegalArgumentException.class, () -> new ClusterSearch(newIndex(router), router, 100, ""));
+
+        ClusterSearch cluster = new ClusterSearch(newIndex(router), router, 100, TOKEN);
+        assertTrue(cluster.isTokenValid(TOKEN));
+        assertFalse(cluster.isTokenValid(TOKEN + "x"));
+        assertFalse(cluster.isTokenValid(""));
+        assertFalse(cluster.isTokenValid(null));
+
+        ClusterSearch standalone = new ClusterSearch(newIndex(ShardRouter.standalone()), ShardRouter.standalone(), 100, "");
+        assertFalse(standalone.isTokenValid(""));
+        assertFalse(standalone.isTokenValid(null));
+    }
+
+    private ClusterSearch startCluster(List<User> users, long timeoutMs) throws Exception {
+        remote = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String nodes = "http://localhost:1," + "http://localhost:" + remote.getAddress().getPort();
+
+        FaceIndex remoteIndex = newIndex(new ShardRouter(true, 16, nodes, 1));
+        remoteIndex.load(users);
+        remote.createContext("/internal/index/search", exchange -> {
+            if (!TOKEN.equals(exchange.getRequestHeaders().getFirst(ClusterSearch.TOKEN_HEADER))) {
+                exchange.sendResponseHeaders(403, -1);
+                exchange.close();
+                return;
+            }
+            try {
+                Thread.sleep(remoteDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int k = Integer.parseInt(exchange.getRequestURI().getQuery().replace("k=", ""));
+            float[] query = IndexWireFormat.decodeVector(exchange.getRequestBody().readAllBytes());
+            byte[] response = IndexWireFormat.encodeHits(remoteIndex.search(query, k));
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        remote.start();
+
+        ShardRouter localRouter = new ShardRouter(true, 16, nodes, 0);
+        FaceIndex localIndex = newIndex(localRouter);
+        localIndex.load(users);
+        assertTrue(localIndex.size() > 0 && remoteIndex.size() > 0);
+        assertEquals(users.size(), localIndex.size() + remoteIndex.size());
+        return new ClusterSearch(localIndex, localRouter, timeoutMs, TOKEN);
+    }
+
+    private FaceIndex newIndex(ShardRouter router) {
+        return new FaceIndex(null, faceRecognition, new PartitionedScorer(1, 256, Integer.MAX_VALUE), router,
+                "int8", 32, 16, 1024);
+    }
+
+    private List<User> randomUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<Double> features = new ArrayList<>();
+            double norm = 0;
+            for (int d = 0; d < faceRecognition.getFeatureSize(); d++) {
+                double value = Math.abs(random.nextGaussian());
+                features.add(value);
+                norm += value * value;
+            }
+            for (int d = 0; d < features.size(); d++) features.set(d, features.get(d) / Math.sqrt(norm));
+            User user = new User("user" + i, "user" + i + "@example.com");
+            user.setId((long) i + 1);
+            user.setFaceEncoding(FeatureEncoding.format(features));
+            users.add(user);
+        }
+        return users;
+    }
+}
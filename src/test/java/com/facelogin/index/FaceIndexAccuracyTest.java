@@ -0,0 +1,115 @@
+package com.facelogin.index;
+
+import com.facelogin.model.User;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Quantized first pass + exact re-rank must agree with the brute-force distances
+ * from {@link OpenCVFaceRecognition#compareFeatures}.
+ */
+class FaceIndexAccuracyTest {
+
+    private static final int USERS = 1500;
+    private static final int QUERIES = 60;
+    private static final double DISTANCE_TOLERANCE = 1e-4;
+
+    private final OpenCVFaceRecognition faceRecognition = new OpenCVFaceRecognition();
+    private final Random random = new Random(7);
+
+    @Test
+    void exactModeMatchesCompareFeatures() {
+        assertMatchesBruteForce("none");
+    }
+
+    @Test
+    void parallelExactModeMatchesCompareFeatures() {
+        // min-size 1 and 16 KB blocks force several partitions on the 1500-vector set
+        assertMatchesBruteForce("none", new PartitionedScorer(4, 16, 1));
+    }
+
+    @Test
+    void int8ModeMatchesCompareFeatures() {
+        assertMatchesBruteForce("int8");
+    }
+
+    @Test
+    void productQuantizationModeMatchesCompareFeatures() {
+        assertMatchesBruteForce("pq");
+    }
+
+    private void assertMatchesBruteForce(String mode) {
+        assertMatchesBruteForce(mode, new PartitionedScorer(1, 256, Integer.MAX_VALUE));
+    }
+
+    private void assertMatchesBruteForce(String mode, PartitionedScorer scorer) {
+        List<User> users = randomUsers();
+        FaceIndex index = new FaceIndex(null, faceRecognition, scorer, ShardRouter.standalone(), mode, 32, 16, 256);
+        index.load(users);
+
+        List<List<Double>> stored = new ArrayList<>();
+        for (User user : users) stored.add(FeatureEncoding.parse(user.getFaceEncoding()));
+
+        int topOneAgreements = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            List<Double> query = perturb(stored.get(random.nextInt(USERS)), 0.01);
+
+            int expected = -1;
+            double expectedDistance = Double.MAX_VALUE;
+            for (int i = 0; i < USERS; i++) {
+                double d = faceRecognition.compareFeatures(query, stored.get(i));
+                if (d < expectedDistance) {
+                    expectedDistance = d;
+                    expected = i;
+                }
+            }
+
+            List<SearchHit> hits = index.search(query, 2);
+            assertEquals(2, hits.size());
+            assertTrue(hits.get(0).getDistance() <= hits.get(1).getDistance());
+            if (hits.get(0).getUserId() == users.get(expected).getId().longValue()) {
+                topOneAgreements++;
+                assertEquals(expectedDistance, hits.get(0).getDistance(), DISTANCE_TOLERANCE);
+            }
+        }
+        assertEquals(QUERIES, topOneAgreements, mode + " top-1 disagreed with exact search");
+    }
+
+    private List<User> randomUsers() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            List<Double> features = new ArrayList<>();
+            for (int d = 0; d < faceRecognition.getFeatureSize(); d++) {
+                features.add(Math.abs(random.nextGaussian()));
+            }
+            User user = new User("user" + i, "user" + i + "@example.com");
+            user.setId((long) i + 1);
+            user.setFaceEncoding(FeatureEncoding.format(normalize(features)));
+            users.add(user);
+        }
+        return users;
+    }
+
+    private List<Double> perturb(List<Double> features, double sigma) {
+        List<Double> noisy = new ArrayList<>();
+        for (Double value : features) noisy.add(value + random.nextGaussian() * sigma);
+        return normalize(noisy);
+    }
+
+    private static List<Double> normalize(List<Double> features) {
+        double norm = 0;
+        for (Double value : features) norm += value * value;
+        norm = Math.sqrt(norm);
+        List<Double> normalized = new ArrayList<>();
+        for (Double value : features) normalized.add(value / norm);
+        return normalized;
+    }
+}
@@ -0,0 +1,169 @@
+package com.facelogin.index;
+
+import com.facelogin.model.User;
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall of the quantized first pass on data shaped like real embeddings: every vector
+ * shares a common non-negative base, identities differ by small offsets and each identity
+ * is enrolled several times with capture noise. Probe captures are about as far from their
+ * own identity as neighbouring identities are from each other, so the shortlist only
+ * contains the true neighbours if the quantized distances are faithful.
+ *
+ * The bounds sit just under what the current quantizers reach with the default
+ * re-rank depth (int8 ~1.0, pq ~0.70 recall@10); halving the re-rank depth fails both.
+ * Faces registered after the PQ codebooks were trained, from a drifted population, are
+ * checked the same way: they depend on the codebooks being retrained as the index grows
+ * (~0.59 recall@10 with retraining, ~0.12 with the load-time codebooks only).
+ */
+class FaceIndexRecallTest {
+
+    private static final int IDENTITIES = 400;
+    private static final int ENROLLED_PER_IDENTITY = 4;
+    private static final int PROBES = 200;
+    private static final int K = 10;
+    private static final int RERANK = 32;
+
+    private final OpenCVFaceRecognition faceRecognition = new OpenCVFaceRecognition();
+    private final int dim = faceRecognition.getFeatureSize();
+    private final Random random = new Random(11);
+
+    @Test
+    void int8RecallOnClusteredEmbeddings() {
+        assertRecall("int8", 0.99);
+    }
+
+    @Test
+    void productQuantizationRecallOnClusteredEmbeddings() {
+        assertRecall("pq", 0.65);
+    }
+
+    @Test
+    void productQuantizationRecallForFacesAddedAfterTraining() {
+        // Trained at load on 256 faces from one population, then 1344 faces from a second
+        // population arrive one by one: 256 -> 512 -> 1024 retrains along the way
+        float[] trainedBase = new float[dim];
+        float[] laterBase = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            trainedBase[i] = (float) Math.abs(random.nextGaussian());
+            laterBase[i] = (float) Math.abs(random.nextGaussian());
+        }
+        List<User> initial = new ArrayList<>();
+        List<float[]> stored = new ArrayList<>();
+        for (int identity = 0; identity < 64; identity++) {
+            float[] center = offset(trainedBase, 0.08);
+            for (int n = 0; n < ENROLLED_PER_IDENTITY; n++) {
+                float[] vector = normalize(offset(center, 0.04));
+                User user = new User("user" + stored.size(), "user" + stored.size() + "@example.com");
+                user.setId((long) stored.size() + 1);
+                user.setFaceEncoding(FeatureEncoding.format(toList(vector)));
+                initial.add(user);
+                stored.add(vector);
+            }
+        }
+        FaceIndex index = new FaceIndex(null, faceRecognition, new PartitionedScorer(1, 256, Integer.MAX_VALUE),
+                ShardRouter.standalone(), "pq", RERANK, 16, 256);
+        index.load(initial);
+        assertEquals(256, index.getProductQuantizerTrainedSize());
+
+        List<float[]> laterCenters = new ArrayList<>();
+        for (int identity = 0; identity < 336; identity++) {
+            float[] center = offset(laterBase, 0.08);
+            laterCenters.add(center);
+            for (int n = 0; n < ENROLLED_PER_IDENTITY; n++) {
+                float[] vector = normalize(offset(center, 0.04));
+                stored.add(vector);
+                index.put((long) stored.size(), vector);
+            }
+        }
+        assertEquals(1024, index.getProductQuantizerTrainedSize());
+
+        float[][] probes = new float[PROBES][];
+        for (int p = 0; p < PROBES; p++) {
+            probes[p] = normalize(offset(laterCenters.get(random.nextInt(laterCenters.size())), 0.04));
+        }
+        assertRecall(index, stored, probes, "pq after training", 0.55);
+    }
+
+    private void assertRecall(String mode, double minRecall) {
+        float[] base = new float[dim];
+        for (int i = 0; i < dim; i++) base[i] = (float) Math.abs(random.nextGaussian());
+        List<float[]> centers = new ArrayList<>();
+        for (int identity = 0; identity < IDENTITIES; identity++) centers.add(offset(base, 0.08));
+
+        List<User> users = new ArrayList<>();
+        List<float[]> stored = new ArrayList<>();
+        for (int identity = 0; identity < IDENTITIES; identity++) {
+            for (int n = 0; n < ENROLLED_PER_IDENTITY; n++) {
+                float[] vector = normalize(offset(centers.get(identity), 0.04));
+                User user = new User("user" + users.size(), "user" + users.size() + "@example.com");
+                user.setId((long) users.size() + 1);
+                user.setFaceEncoding(FeatureEncoding.format(toList(vector)));
+                users.add(user);
+                stored.add(vector);
+            }
+        }
+
+        FaceIndex index = new FaceIndex(null, faceRecognition, new PartitionedScorer(1, 256, Integer.MAX_VALUE),
+                ShardRouter.standalone(), mode, RERANK, 16, 256);
+        index.load(users);
+
+        float[][] probes = new float[PROBES][];
+        for (int p = 0; p < PROBES; p++) {
+            probes[p] = normalize(offset(centers.get(random.nextInt(IDENTITIES)), 0.04));
+        }
+        assertRecall(index, stored, probes, mode, minRecall);
+    }
+
+    private void assertRecall(FaceIndex index, List<float[]> stored, float[][] probes, String mode, double minRecall) {
+        int found = 0;
+        int topOne = 0;
+        for (float[] probe : probes) {
+            TopK exact = new TopK(K);
+            for (int i = 0; i < stored.size(); i++) {
+                exact.offer(PartitionedScorer.squaredDistance(probe, stored.get(i), 0, dim), i + 1);
+            }
+            long[] expected = exact.sortedPayloads();
+            Set<Long> returned = new HashSet<>();
+            List<SearchHit> hits = index.search(probe, K);
+            for (SearchHit hit : hits) returned.add(hit.getUserId());
+            for (long id : expected) if (returned.contains(id)) found++;
+            if (!hits.isEmpty() && hits.get(0).getUserId() == expected[0]) topOne++;
+        }
+        double recall = found / (double) (PROBES * K);
+        double topOneRecall = topOne / (double) PROBES;
+        assertTrue(recall >= minRecall, mode + " recall@" + K + " " + recall + " below " + minRecall);
+        assertTrue(topOneRecall >= 0.99, mode + " top-1 recall " + topOneRecall);
+    }
+
+    private float[] offset(float[] center, double sigma) {
+        float[] vector = new float[dim];
+        for (int i = 0; i < dim; i++) vector[i] = center[i] + (float) (random.nextGaussian() * sigma);
+        return vector;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) normalized[i] = (float) (vector[i] / Math.sqrt(norm));
+        return normalized;
+    }
+
+    private static List<Double> toList(float[] vector) {
+        List<Double> list = new ArrayList<>(vector.length);
+        for (float v : vector) list.add((double) v);
+        return list;
+    }
+}
@@ -0,0 +1,57 @@
+package com.facelogin.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PairDistancesTest {
+
+    private static final int DIM = 256;
+
+    @Test
+    void separatedIdentitiesGiveLowEerAndSensibleThresholds() {
+        int people = 100;
+        int imagesPerPerson = 5;
+        int count = people * imagesPerPerson;
+        Random random = new Random(7);
+        float[] vectors = new float[count * DIM];
+        int[] labels = new int[count];
+        for (int person = 0; person < people; person++) {
+            float[] center = new float[DIM];
+            for (int i = 0; i < DIM; i++) center[i] = (float) random.nextGaussian() * 0.06f;
+            for (int image = 0; image < imagesPerPerson; image++) {
+                int row = person * imagesPerPerson + image;
+                labels[row] = person;
+                for (int i = 0; i < DIM; i++) {
+                    vectors[row * DIM + i] = center[i] + (float) random.nextGaussian() * 0.01f;
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            PairDistances distances = PairDistances.compute(vectors, labels, count, DIM, 4096, pool);
+
+            long genuine = (long) people * imagesPerPerson * (imagesPerPerson - 1) / 2;
+            assertEquals(genuine, distances.getGenuinePairs());
+            assertEquals((long) count * (count - 1) / 2 - genuine, distances.getImpostorPairs());
+            assertTrue(distances.getGenuineMean() < distances.getImpostorMean());
+
+            assertEquals(0.0, distances.far(0.0));
+            assertEquals(1.0, distances.frr(0.0));
+            assertTrue(distances.eer() < 0.01, "EER " + distances.eer());
+
+            double login = distances.thresholdForFar(0.001);
+            assertTrue(distances.far(login) <= 0.001);
+            double registration = distances.thresholdForFrr(0.01);
+            assertTrue(distances.frr(registration) <= 0.01);
+            assertTrue(registration < login, "registration " + registration + " login " + login);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
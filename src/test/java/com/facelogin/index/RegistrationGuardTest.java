@@ -0,0 +1,240 @@
+package com.facelogin.index;
+
+import com.facelogin.util.FeatureEncoding;
+import com.facelogin.util.OpenCVFaceRecognition;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RegistrationGuardTest {
+
+    private static final String TOKEN = "cluster-secret";
+
+    private final OpenCVFaceRecognition faceRecognition = new OpenCVFaceRecognition();
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    private final FaceIndex index = new FaceIndex(null, faceRecognition,
+            new PartitionedScorer(1, 256, Integer.MAX_VALUE), ShardRouter.standalone(), "int8", 32, 16, 1024);
+
+    @AfterEach
+    void stopNodes() {
+        for (HttpServer server : servers) server.stop(0);
+    }
+
+    private RegistrationGuard newGuard() {
+        index.load(Collections.emptyList());
+        return new RegistrationGuard(new ClusterSearch(index, ShardRouter.standalone(), 300, ""));
+    }
+
+    @Test
+    void sameFaceRegisteredConcurrentlyOnlyOnce() throws Exception {
+        RegistrationGuard guard = newGuard();
+        List<Double> face = unitVector(0);
+        int threads = 16;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            int n = i;
+            executor.submit(() -> {
+                start.await();
+                RegistrationGuard.Reservation reservation = guard.reserveIdentity("user" + n, "user" + n + "@example.com");
+                try {
+                    guard.reserveFace(reservation, face, 0.3);
+                    Thread.sleep(20); // hold the reservation as a slow save would
+                    index.put((long) n, face);
+                    accepted.incrementAndGet();
+                } catch (RuntimeException e) {
+                    // duplicate rejected
+                } finally {
+                    guard.release(reservation);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertEquals(1, accepted.get());
+        assertEquals(0, guard.getPendingCount());
+    }
+
+    @Test
+    void slowCommittedSearchDoesNotBlockOtherRegistrations() throws Exception {
+        index.load(Collections.emptyList());
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        ClusterSearch slowFirstSearch = new ClusterSearch(index, ShardRouter.standalone(), 300, "") {
+            private final AtomicInteger calls = new AtomicInteger();
+
+            @Override
+            public SearchResult searchIncludingPending(List<Double> features, int k) {
+                if (calls.getAndIncrement() == 0) {
+                    searching.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.searchIncludingPending(features, k);
+            }
+        };
+        RegistrationGuard guard = new RegistrationGuard(slowFirstSearch);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RegistrationGuard.Reservation slow = guard.reserveIdentity("slow", "slow@example.com");
+        executor.submit(() -> {
+            guard.reserveFace(slow, unitVector(0), 0.3);
+            return null;
+        });
+        searching.await();
+
+        // The first registration is parked inside its search; a different face goes through
+        RegistrationGuard.Reservation other = guard.reserveIdentity("other", "other@example.com");
+        guard.reserveFace(other, unitVector(1), 0.3);
+        // ...while the same face is still caught by the pending scan
+        RegistrationGuard.Reservation same = guard.reserveIdentity("same", "same@example.com");
+        assertThrows(RuntimeException.class, () -> guard.reserveFace(same, unitVector(0), 0.3));
+
+        resume.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        guard.release(same);
+        guard.release(other);
+        guard.release(slow);
+        assertEquals(0, guard.getPendingCount());
+    }
+
+    @Test
+    void sameUsernameCannotBeReservedTwice() {
+        RegistrationGuard guard = newGuard();
+        RegistrationGuard.Reservation first = guard.reserveIdentity("alice", "alice@example.com");
+        assertThrows(RuntimeException.class, () -> guard.reserveIdentity("alice", "other@example.com"));
+        assertThrows(RuntimeException.class, () -> guard.reserveIdentity("bob", "alice@example.com"));
+        guard.release(first);
+        guard.release(guard.reserveIdentity("alice", "alice@example.com"));
+    }
+
+    @Test
+    void faceStaysReservedClusterWideUntilTheShardOwnerHasIt() throws Exception {
+        Node[] nodes = startCluster(500);
+        Node registering = nodes[0];
+        Node owner = nodes[1];
+        long userId = 1;
+        while (!owner.router.isLocal(userId)) userId++;
+        owner.acceptPuts = false;
+
+        RegistrationGuard.Reservation first = registering.guard.reserveIdentity("first", "first@example.com");
+        registering.guard.reserveFace(first, unitVector(0), 0.3);
+        registering.guard.index(first, userId, unitVector(0));
+        registering.guard.release(first);
+        assertEquals(1, registering.guard.getHeldFaceCount());
+        assertEquals(0, owner.index.size());
+
+        // The forward failed, so only the registering node knows the face: the same face
+        // registered on the owner is still refused
+        RegistrationGuard.Reservation second = owner.guard.reserveIdentity("second", "second@example.com");
+        assertThrows(RuntimeException.class, () -> owner.guard.reserveFace(second, unitVector(0), 0.3));
+        owner.guard.release(second);
+        registering.guard.completeHandoffs();
+        assertEquals(1, registering.guard.getHeldFaceCount());
+
+        // The retried forward lands, and after the hold the owner's index alone refuses it
+        owner.acceptPuts = true;
+        registering.guard.completeHandoffs();
+        assertEquals(1, owner.index.size());
+        Thread.sleep(1100);
+        registering.guard.completeHandoffs();
+        assertEquals(0, registering.guard.getHeldFaceCount());
+        assertNull(registering.guard.nearestPending(FeatureEncoding.toVector(unitVector(0))));
+        RegistrationGuard.Reservation third = owner.guard.reserveIdentity("third", "third@example.com");
+        assertThrows(RuntimeException.class, () -> owner.guard.reserveFace(third, unitVector(0), 0.3));
+        owner.guard.release(third);
+
+        RegistrationGuard.Reservation other = owner.guard.reserveIdentity("other", "other@example.com");
+        owner.guard.reserveFace(other, unitVector(1), 0.3);
+        owner.guard.release(other);
+    }
+
+    /**
+     * Two nodes on localhost, each behind a plain HTTP server with the internal search
+     * (including pending faces) and vector put endpoints.
+     */
+    private Node[] startCluster(long timeoutMs) throws Exception {
+        HttpServer[] http = new HttpServer[2];
+        StringBuilder urls = new StringBuilder();
+        for (int i = 0; i < http.length; i++) {
+            http[i] = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            servers.add(http[i]);
+            urls.append(i == 0 ? "" : ",").append("http://localhost:").append(http[i].getAddress().getPort());
+        }
+        Node[] nodes = new Node[http.length];
+        for (int i = 0; i < http.length; i++) {
+            Node node = new Node(new ShardRouter(true, 16, urls.toString(), i), timeoutMs);
+            nodes[i] = node;
+            http[i].createContext("/internal/index/search", exchange -> {
+                String query = exchange.getRequestURI().getQuery();
+                float[] vector = IndexWireFormat.decodeVector(exchange.getRequestBody().readAllBytes());
+                SearchHit pending = query.contains("pending=true") ? node.guard.nearestPending(vector) : null;
+                List<SearchHit> hits = new ArrayList<>(node.index.search(vector, 1));
+                if (pending != null) hits.add(pending);
+                hits.sort(Comparator.comparingDouble(SearchHit::getDistance));
+                byte[] response = IndexWireFormat.encodeHits(hits.subList(0, Math.min(1, hits.size())));
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            });
+            http[i].createContext("/internal/index/vectors/", exchange -> {
+                byte[] body = exchange.getRequestBody().readAllBytes();
+                if (!node.acceptPuts) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                String path = exchange.getRequestURI().getPath();
+                node.index.put(Long.parseLong(path.substring(path.lastIndexOf('/') + 1)), IndexWireFormat.decodeVector(body));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            http[i].start();
+        }
+        return nodes;
+    }
+
+    private class Node {
+        final ShardRouter router;
+        final FaceIndex index;
+        final RegistrationGuard guard;
+        volatile boolean acceptPuts = true;
+
+        Node(ShardRouter router, long timeoutMs) {
+            this.router = router;
+            this.index = new FaceIndex(null, faceRecognition, new PartitionedScorer(1, 256, Integer.MAX_VALUE), router,
+                    "int8", 32, 16, 1024);
+            this.index.load(Collections.emptyList());
+            this.guard = new RegistrationGuard(new ClusterSearch(index, router, timeoutMs, TOKEN));
+        }
+    }
+
+    private List<Double> unitVector(int axis) {
+        List<Double> vector = new ArrayList<>();
+        for (int i = 0; i < faceRecognition.getFeatureSize(); i++) vector.add(i == axis ? 1.0 : 0.0);
+        return vector;
+    }
+}
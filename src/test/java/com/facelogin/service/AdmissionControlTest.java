@@ -0,0 +1,124 @@
+package com.facelogin.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlTest {
+
+    private AdmissionControl newControl(int limit, int loginQueue, int registrationQueue, long maxWaitMs) {
+        return new AdmissionControl(limit, 1, limit, 60_000, 0.5, 1.0,
+                loginQueue, maxWaitMs, registrationQueue, maxWaitMs);
+    }
+
+    @Test
+    void fullQueueIsShedWith429AndTimeoutWith503() throws Exception {
+        AdmissionControl control = newControl(1, 1, 0, 50);
+        AdmissionControl.Permit running = control.acquire(AdmissionControl.Priority.LOGIN);
+
+        AdmissionControl.RejectedException full = assertThrows(AdmissionControl.RejectedException.class,
+                () -> control.acquire(AdmissionControl.Priority.REGISTRATION));
+        assertEquals(429, full.getStatus());
+        assertTrue(full.getRetryAfterSeconds() >= 1);
+
+        AdmissionControl.RejectedException timedOut = assertThrows(AdmissionControl.RejectedException.class,
+                () -> control.acquire(AdmissionControl.Priority.LOGIN));
+        assertEquals(503, timedOut.getStatus());
+
+        running.close();
+        control.acquire(AdmissionControl.Priority.LOGIN).close();
+    }
+
+    @Test
+    void queuedLoginsRunBeforeQueuedRegistrations() throws Exception {
+        AdmissionControl control = newControl(1, 8, 8, 5_000);
+        AdmissionControl.Permit running = control.acquire(AdmissionControl.Priority.LOGIN);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        Thread registration = waiter(control, AdmissionControl.Priority.REGISTRATION, order, done);
+        registration.start();
+        awaitQueued(control, "registration");
+        Thread login = waiter(control, AdmissionControl.Priority.LOGIN, order, done);
+        login.start();
+        awaitQueued(control, "login");
+
+        running.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("LOGIN", "REGISTRATION"), order);
+    }
+
+    @Test
+    void burstOfSlowCompletionsBacksOffOncePerRoundTrip() throws Exception {
+        AdmissionControl control = new AdmissionControl(8, 1, 8, 1, 0.5, 1.0, 8, 1000, 8, 1000);
+        complete(control.acquire(AdmissionControl.Priority.LOGIN)); // sets the best-seen latency
+
+        List<AdmissionControl.Permit> burst = new ArrayList<>();
+        for (int i = 0; i < 8; i++) burst.add(control.acquire(AdmissionControl.Priority.LOGIN));
+        Thread.sleep(50); // well past the 1ms target and twice the best seen, even on a loaded machine
+        for (AdmissionControl.Permit permit : burst) complete(permit);
+        assertEquals(4, control.getLimit()); // one cut for the whole burst, not 0.5^8
+
+        // A request admitted after the cut that is still slow is news: cut again
+        AdmissionControl.Permit later = control.acquire(AdmissionControl.Priority.LOGIN);
+        Thread.sleep(50);
+        complete(later);
+        assertEquals(2, control.getLimit());
+    }
+
+    @Test
+    void quickFailuresDoNotGrowTheLimit() throws Exception {
+        AdmissionControl control = new AdmissionControl(2, 1, 8, 60_000, 0.5, 1.0, 8, 1000, 8, 1000);
+        for (int i = 0; i < 20; i++) {
+            AdmissionControl.Permit first = control.acquire(AdmissionControl.Priority.LOGIN);
+            AdmissionControl.Permit second = control.acquire(AdmissionControl.Priority.LOGIN);
+            first.close(); // e.g. no face in the image
+            second.close();
+        }
+        assertEquals(2, control.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            AdmissionControl.Permit first = control.acquire(AdmissionControl.Priority.LOGIN);
+            AdmissionControl.Permit second = control.acquire(AdmissionControl.Priority.LOGIN);
+            complete(first);
+            complete(second);
+        }
+        assertEquals(3, control.getLimit());
+    }
+
+    private static void complete(AdmissionControl.Permit permit) {
+        permit.succeeded();
+        permit.close();
+    }
+
+    private Thread waiter(AdmissionControl control, AdmissionControl.Priority priority,
+                          List<String> order, CountDownLatch done) {
+        return new Thread(() -> {
+            try (AdmissionControl.Permit permit = control.acquire(priority)) {
+                order.add(priority.name());
+            } catch (InterruptedException ignored) {
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void awaitQueued(AdmissionControl control, String queue) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> perClass = (Map<String, Object>) control.getMetrics().get(queue);
+            if ((Integer) perClass.get("queueDepth") > 0) return;
+            Thread.sleep(2);
+        }
+        throw new AssertionError(queue + " request never queued");
+    }
+}
@@ -0,0 +1,77 @@
+package com.facelogin.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkImportServiceTest {
+
+    @Test
+    void quotedFieldsKeepTheirCommasAndQuotes() {
+        assertEquals(List.of("alice", "alice@corp.com", "alice.jpg"),
+                BulkImportService.parseCsvLine(" alice , alice@corp.com,alice.jpg "));
+        assertEquals(List.of("Doe, Jane", "jane@corp.com", "faces/jane.jpg"),
+                BulkImportService.parseCsvLine("\"Doe, Jane\",jane@corp.com,\"faces/jane.jpg\""));
+        assertEquals(List.of("say \"hi\"", "", "x.jpg"),
+                BulkImportService.parseCsvLine("\"say \"\"hi\"\"\",,x.jpg"));
+    }
+
+    @Test
+    void wrongFieldCountsAndOpenQuotesAreVisible() {
+        // An unquoted comma in a name yields four fields instead of silently shifting columns
+        assertEquals(4, BulkImportService.parseCsvLine("Doe, Jane,jane@corp.com,jane.jpg").size());
+        assertEquals(2, BulkImportService.parseCsvLine("bob,bob.jpg").size());
+        assertNull(BulkImportService.parseCsvLine("\"Doe, Jane,jane@corp.com,jane.jpg"));
+    }
+
+    @Test
+    void zipWithinTheLimitsIsExtracted(@TempDir Path dir) throws IOException {
+        byte[] zip = zip(2, 1000);
+        BulkImportService.unzip(new ByteArrayInputStream(zip), dir, 2000, 2);
+        assertEquals(1000, Files.size(dir.resolve("entry0.bin")));
+        assertEquals(1000, Files.size(dir.resolve("entry1.bin")));
+    }
+
+    @Test
+    void zipPastTheUncompressedSizeIsRejected(@TempDir Path dir) throws IOException {
+        // Compresses to almost nothing, so only the bytes written give it away
+        byte[] zip = zip(1, 1_000_000);
+        assertTrue(zip.length < 10_000);
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> BulkImportService.unzip(new ByteArrayInputStream(zip), dir, 100_000, 10));
+        assertTrue(e.getMessage().contains("MB"), e.getMessage());
+    }
+
+    @Test
+    void zipWithTooManyEntriesIsRejected(@TempDir Path dir) throws IOException {
+        byte[] zip = zip(5, 10);
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> BulkImportService.unzip(new ByteArrayInputStream(zip), dir, 1_000_000, 4));
+        assertTrue(e.getMessage().contains("entries"), e.getMessage());
+    }
+
+    private static byte[] zip(int entries, int bytesPerEntry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("entry" + i + ".bin"));
+                zip.write(new byte[bytesPerEntry]);
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,150 @@
+package com.facelogin.service;
+
+import com.facelogin.index.FaceIndex;
+import com.facelogin.model.User;
+import com.facelogin.model.UserChange;
+import com.facelogin.repository.UserChangeRepository;
+import com.facelogin.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Gap handling while tailing user_changes. Change times and "now" both come from the
+ * database clock, which here is deliberately far from the local one.
+ */
+class IndexSyncServiceTest {
+
+    private static final Instant DB_NOW = Instant.parse("2020-01-01T00:00:10Z");
+
+    private final FaceIndex faceIndex = mock(FaceIndex.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserChangeRepository changes = mock(UserChangeRepository.class);
+    private final List<UserChange> log = new ArrayList<>();
+    private IndexSyncService sync;
+
+    @BeforeEach
+    void setUp() {
+        when(changes.databaseNow()).thenReturn(Timestamp.from(DB_NOW));
+        when(changes.findByIdGreaterThanOrderByIdAsc(anyLong(), any())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            return log.stream().filter(c -> c.getId() > after).toList();
+        });
+        when(changes.findAllById(any())).thenAnswer(invocation -> {
+            Iterable<Long> ids = invocation.getArgument(0);
+            List<Long> wanted = new ArrayList<>();
+            ids.forEach(wanted::add);
+            return log.stream().filter(c -> wanted.contains(c.getId())).toList();
+        });
+        when(changes.findTopByOrderByIdAsc()).thenAnswer(invocation -> log.stream().findFirst());
+        when(changes.findTopByOrderByIdDesc()).thenAnswer(invocation ->
+                log.isEmpty() ? Optional.empty() : Optional.of(log.get(log.size() - 1)));
+        when(userRepository.findAll()).thenReturn(List.of());
+        when(userRepository.findAllById(any())).thenReturn(List.of());
+        when(faceIndex.isLocal(anyLong())).thenReturn(true);
+
+        sync = new IndexSyncService(faceIndex, userRepository, changes, true, 100, 1, 168, 2000, 600_000);
+        sync.poll(); // initial full resync at head 0
+    }
+
+    @Test
+    void contiguousChangesAreApplied() {
+        change(1, 1, 60);
+        change(2, 2, 60);
+        sync.poll();
+        assertEquals(2L, sync.getMetrics().get("appliedChangeId"));
+    }
+
+    @Test
+    void freshGapWaitsForTheMissingTransaction() {
+        change(1, 1, 60);
+        change(3, 3, 1); // id 2 may still be committing
+        sync.poll();
+        assertEquals(1L, sync.getMetrics().get("appliedChangeId"));
+
+        change(2, 2, 0);
+        log.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        sync.poll();
+        assertEquals(3L, sync.getMetrics().get("appliedChangeId"));
+    }
+
+    @Test
+    void oldGapIsSkippedByDatabaseTime() {
+        change(1, 1, 60);
+        change(3, 3, 5); // older than the grace period on the database clock: a rollback
+        sync.poll();
+        assertEquals(3L, sync.getMetrics().get("appliedChangeId"));
+    }
+
+    @Test
+    void usersOwnedByOtherShardsAreNotTouched() {
+        when(faceIndex.isLocal(7L)).thenReturn(false);
+        change(1, 7, 60);
+        sync.poll();
+        assertEquals(1L, sync.getMetrics().get("appliedChangeId"));
+        verify(faceIndex, never()).remove(7L);
+        verify(faceIndex, never()).put(any(Long.class), anyList());
+    }
+
+    @Test
+    void gapThatCommitsAfterTheGraceIsAppliedLate() {
+        change(1, 1, 60);
+        change(3, 3, 5);
+        sync.poll();
+        assertEquals(3L, sync.getMetrics().get("appliedChangeId"));
+        assertEquals(1, sync.getMetrics().get("skippedChangeIds"));
+
+        // The slow transaction finally commits, its change stamped at insert time
+        User late = mock(User.class);
+        when(late.getId()).thenReturn(2L);
+        when(late.getFaceEncoding()).thenReturn("[0.5,0.5]");
+        when(faceIndex.isIndexable(late)).thenReturn(true);
+        when(userRepository.findAllById(any())).thenReturn(List.of(late));
+        change(2, 2, 30);
+        sync.poll();
+        verify(faceIndex).put(2L, List.of(0.5, 0.5));
+        assertEquals(0, sync.getMetrics().get("skippedChangeIds"));
+        assertEquals(1L, sync.getMetrics().get("lateChanges"));
+
+        sync.poll();
+        verify(faceIndex, times(1)).put(2L, List.of(0.5, 0.5));
+    }
+
+    @Test
+    void skippedIdsAreForgottenAfterTheRecheckWindow() {
+        sync = new IndexSyncService(faceIndex, userRepository, changes, true, 100, 1, 168, 2000, 3000);
+        sync.poll();
+        change(1, 1, 60);
+        change(3, 3, 5);
+        sync.poll();
+        assertEquals(1, sync.getMetrics().get("skippedChangeIds"));
+
+        // Skipped at database time DB_NOW; move the database clock past the window
+        when(changes.databaseNow()).thenReturn(Timestamp.from(DB_NOW.plusSeconds(4)));
+        sync.poll();
+        assertEquals(0, sync.getMetrics().get("skippedChangeIds"));
+    }
+
+    private void change(long id, long userId, int secondsAgo) {
+        UserChange change = mock(UserChange.class);
+        when(change.getId()).thenReturn(id);
+        when(change.getUserId()).thenReturn(userId);
+        when(change.getChangedAt()).thenReturn(DB_NOW.minusSeconds(secondsAgo));
+        log.add(change);
+    }
+}
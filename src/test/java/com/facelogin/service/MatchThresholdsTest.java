@@ -0,0 +1,66 @@
+package com.facelogin.service;
+
+import com.facelogin.model.RuntimeSetting;
+import com.facelogin.repository.RuntimeSettingRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MatchThresholdsTest {
+
+    private final RuntimeSettingRepository settings = mock(RuntimeSettingRepository.class);
+
+    @Test
+    void updatesWithinBoundsAreStored() {
+        when(settings.findById(anyString())).thenReturn(Optional.empty());
+        MatchThresholds thresholds = new MatchThresholds(settings, 0.5, 0.3);
+
+        thresholds.update(0.42, 0.35);
+        assertEquals(0.42, thresholds.getLogin());
+        assertEquals(0.35, thresholds.getRegistration());
+
+        thresholds.update(null, 0.42); // registration may equal login
+        assertEquals(0.42, thresholds.getRegistration());
+    }
+
+    @Test
+    void updatesOutOfBoundsAreRejected() {
+        when(settings.findById(anyString())).thenReturn(Optional.empty());
+        MatchThresholds thresholds = new MatchThresholds(settings, 0.5, 0.3);
+
+        assertThrows(RuntimeException.class, () -> thresholds.update(0.2, null));       // login below registration
+        assertThrows(RuntimeException.class, () -> thresholds.update(null, 0.6));       // registration above login
+        assertThrows(RuntimeException.class, () -> thresholds.update(2.5, null));       // beyond unit-vector range
+        assertThrows(RuntimeException.class, () -> thresholds.update(null, 0.0));
+        assertThrows(RuntimeException.class, () -> thresholds.update(Double.NaN, null));
+        assertEquals(0.5, thresholds.getLogin());
+        assertEquals(0.3, thresholds.getRegistration());
+        verify(settings, never()).saveAll(any());
+    }
+
+    @Test
+    void refreshIgnoresAnInvalidStoredPair() {
+        when(settings.findById(MatchThresholds.LOGIN_KEY))
+                .thenReturn(Optional.of(new RuntimeSetting(MatchThresholds.LOGIN_KEY, 0.1)));
+        when(settings.findById(MatchThresholds.REGISTRATION_KEY))
+                .thenReturn(Optional.of(new RuntimeSetting(MatchThresholds.REGISTRATION_KEY, 0.3)));
+        MatchThresholds thresholds = new MatchThresholds(settings, 0.5, 0.3);
+
+        thresholds.refresh();
+        assertEquals(0.5, thresholds.getLogin());
+
+        when(settings.findById(MatchThresholds.LOGIN_KEY))
+                .thenReturn(Optional.of(new RuntimeSetting(MatchThresholds.LOGIN_KEY, 0.45)));
+        thresholds.refresh();
+        assertEquals(0.45, thresholds.getLogin());
+    }
+}
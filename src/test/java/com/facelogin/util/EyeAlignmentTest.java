@@ -0,0 +1,100 @@
+package com.facelogin.util;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EyeAlignmentTest {
+
+    private static final int FACE_WIDTH = 160;
+
+    @Test
+    void largestTwoDetectionsFormThePair() {
+        Rect[] detections = {
+                new Rect(70, 60, 10, 10),  // nostril-sized false positive
+                new Rect(100, 30, 24, 20), // right eye
+                new Rect(30, 34, 24, 20),  // left eye
+                new Rect(5, 5, 12, 12),
+        };
+        Point[] eyes = OpenCVFaceRecognition.pickEyePair(detections, FACE_WIDTH);
+        assertNotNull(eyes);
+        assertPoint(42, 44, eyes[0]);
+        assertPoint(112, 40, eyes[1]);
+    }
+
+    @Test
+    void implausiblePairsAreRejected() {
+        // Fewer than two detections
+        assertNull(OpenCVFaceRecognition.pickEyePair(new Rect[0], FACE_WIDTH));
+        assertNull(OpenCVFaceRecognition.pickEyePair(new Rect[]{new Rect(30, 30, 20, 20)}, FACE_WIDTH));
+        // The same eye found twice: centres closer than a fifth of the face width
+        assertNull(OpenCVFaceRecognition.pickEyePair(
+                new Rect[]{new Rect(30, 30, 24, 24), new Rect(40, 32, 22, 22)}, FACE_WIDTH));
+        // Steeper than the pair can plausibly tilt
+        assertNull(OpenCVFaceRecognition.pickEyePair(
+                new Rect[]{new Rect(30, 10, 20, 20), new Rect(90, 60, 20, 20)}, FACE_WIDTH));
+        // Both on the same side of the face
+        assertNull(OpenCVFaceRecognition.pickEyePair(
+                new Rect[]{new Rect(0, 30, 20, 20), new Rect(50, 30, 20, 20)}, FACE_WIDTH));
+        assertNull(OpenCVFaceRecognition.pickEyePair(
+                new Rect[]{new Rect(90, 30, 20, 20), new Rect(135, 30, 20, 20)}, FACE_WIDTH));
+    }
+
+    @Test
+    void transformPutsTiltedEyesOnTheCanonicalPositions() {
+        nu.pattern.OpenCV.loadShared();
+        // Eyes 200px apart, tilted by 20 degrees, somewhere in a large crop
+        double angle = Math.toRadians(20);
+        Point left = new Point(210, 180);
+        Point right = new Point(left.x + 200 * Math.cos(angle), left.y + 200 * Math.sin(angle));
+        Mat transform = OpenCVFaceRecognition.eyeAlignment(left, right);
+
+        assertPoint(30, 35, apply(transform, left));
+        assertPoint(70, 35, apply(transform, right));
+        // Pure similarity: uniform scale of 40/200, no shear
+        double a = transform.get(0, 0)[0];
+        double b = transform.get(0, 1)[0];
+        assertEquals(0.2, Math.hypot(a, b), 1e-6);
+        assertEquals(a, transform.get(1, 1)[0], 1e-6);
+        assertEquals(-b, transform.get(1, 0)[0], 1e-6);
+    }
+
+    @Test
+    void faceWithoutEyesFallsBackToThePlainResize() {
+        OpenCVFaceRecognition faceRecognition = new OpenCVFaceRecognition();
+        faceRecognition.init();
+        Mat blank = new Mat(240, 200, CvType.CV_8UC1, new Scalar(128));
+        Rect whole = new Rect(0, 0, blank.cols(), blank.rows());
+
+        List<Double> unaligned = faceRecognition.extractFeatures(blank, whole);
+        faceRecognition.setActiveExtractorVersion(2);
+        List<Double> fallback = faceRecognition.extractFeatures(blank, whole);
+
+        assertEquals(unaligned, fallback);
+        Map<String, Object> metrics = faceRecognition.getAlignmentMetrics();
+        assertEquals(true, metrics.get("eyeDetectorLoaded"));
+        assertEquals(1L, metrics.get("attempts"));
+        assertEquals(1L, metrics.get("fallbacks"));
+    }
+
+    private static Point apply(Mat transform, Point p) {
+        return new Point(
+                transform.get(0, 0)[0] * p.x + transform.get(0, 1)[0] * p.y + transform.get(0, 2)[0],
+                transform.get(1, 0)[0] * p.x + transform.get(1, 1)[0] * p.y + transform.get(1, 2)[0]);
+    }
+
+    private static void assertPoint(double x, double y, Point actual) {
+        assertEquals(x, actual.x, 1e-3, "x of " + actual);
+        assertEquals(y, actual.y, 1e-3, "y of " + actual);
+    }
+}
@@ -0,0 +1,108 @@
+package com.facelogin.util;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageBufferPoolTest {
+
+    @Test
+    void jpegIsSniffedAndDecodedFromThePooledBuffer() throws Exception {
+        nu.pattern.OpenCV.loadShared();
+        Mat source = new Mat(120, 200, CvType.CV_8UC3, new Scalar(30, 90, 200));
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".jpg", source, encoded);
+        byte[] jpeg = encoded.toArray();
+
+        ImageBufferPool pool = new ImageBufferPool(1, 1 << 20, 1_000_000, 10);
+        try (ImageBufferPool.PooledImage image = pool.read(new ByteArrayInputStream(jpeg), jpeg.length)) {
+            assertEquals("jpeg", image.getFormat());
+            assertEquals(200, image.getWidth());
+            assertEquals(120, image.getHeight());
+            Mat decoded = Imgcodecs.imdecode(image.asMat(), Imgcodecs.IMREAD_COLOR);
+            assertEquals(200, decoded.cols());
+            assertEquals(120, decoded.rows());
+        }
+        assertEquals(0, pool.getMetrics().get("inUse"));
+    }
+
+    @Test
+    void nonImageIsRejectedAfterTheFirstChunk() {
+        ImageBufferPool pool = new ImageBufferPool(1, 1 << 20, 1_000_000, 10);
+        CountingStream body = new CountingStream("<html>not a face</html>".repeat(10_000).getBytes());
+        assertThrows(ImageBufferPool.ImageRejectedException.class, () -> pool.read(body, -1));
+        assertTrue(body.read.get() <= 8192, "read " + body.read.get() + " bytes");
+        assertEquals(1L, pool.getMetrics().get("rejectedNotImage"));
+    }
+
+    @Test
+    void oversizedDimensionsAndBodiesAreRejectedEarly() {
+        ImageBufferPool pool = new ImageBufferPool(1, 64 * 1024, 1_000_000, 10);
+
+        // PNG header declaring 5000x5000 followed by a large body
+        byte[] png = new byte[200_000];
+        byte[] header = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+                0, 0, 0x13, (byte) 0x88, 0, 0, 0x13, (byte) 0x88};
+        System.arraycopy(header, 0, png, 0, header.length);
+        CountingStream body = new CountingStream(png);
+        RuntimeException tooManyPixels = assertThrows(ImageBufferPool.ImageRejectedException.class, () -> pool.read(body, -1));
+        assertTrue(tooManyPixels.getMessage().contains("5000x5000"));
+        assertTrue(body.read.get() <= 8192);
+
+        // Declared length over the limit: nothing read at all
+        CountingStream declared = new CountingStream(png);
+        assertThrows(ImageBufferPool.ImageRejectedException.class, () -> pool.read(declared, png.length));
+        assertEquals(0, declared.read.get());
+        assertEquals(0, pool.getMetrics().get("inUse"));
+    }
+
+    @Test
+    void exhaustedPoolTurnsRequestsAway() throws Exception {
+        nu.pattern.OpenCV.loadShared();
+        MatOfByte encoded = new MatOfByte();
+        Imgcodecs.imencode(".png", new Mat(10, 10, CvType.CV_8UC1, new Scalar(0)), encoded);
+        byte[] png = encoded.toArray();
+
+        ImageBufferPool pool = new ImageBufferPool(1, 64 * 1024, 1_000_000, 10);
+        try (ImageBufferPool.PooledImage held = pool.read(new ByteArrayInputStream(png), png.length)) {
+            assertThrows(ImageBufferPool.PoolExhaustedException.class,
+                    () -> pool.read(new ByteArrayInputStream(png), png.length));
+        }
+        pool.read(new ByteArrayInputStream(png), png.length).close();
+        assertEquals(1, pool.getMetrics().get("allocated"));
+    }
+
+    private static class CountingStream extends InputStream {
+        final AtomicInteger read = new AtomicInteger();
+        private final ByteArrayInputStream in;
+
+        CountingStream(byte[] data) {
+            in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() {
+            int b = in.read();
+            if (b >= 0) read.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = in.read(b, off, len);
+            if (n > 0) read.addAndGet(n);
+            return n;
+        }
+    }
+}